@@ -0,0 +1,122 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * Arithmetic and comparisons where both operands come from the context so we measure the conversion logic for each numeric type
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassicOperationBenchmark {
+
+	@Param({ "int", "long", "double", "bigInteger", "bigDecimal", "mixed" })
+	private String numberType;
+	
+	private Map<String, Object> context = new HashMap<String, Object>();
+	private Operation<Object> add, multiply, divide, equals, greater, chain;
+	
+	@Setup
+	public void setup() {
+		if (numberType.equals("int")) {
+			context.put("a", 1234);
+			context.put("b", 56);
+		}
+		else if (numberType.equals("long")) {
+			context.put("a", 1234l);
+			context.put("b", 56l);
+		}
+		else if (numberType.equals("double")) {
+			context.put("a", 1234.5d);
+			context.put("b", 56.7d);
+		}
+		else if (numberType.equals("bigInteger")) {
+			context.put("a", new BigInteger("1234"));
+			context.put("b", new BigInteger("56"));
+		}
+		else if (numberType.equals("bigDecimal")) {
+			context.put("a", new BigDecimal("1234.5"));
+			context.put("b", new BigDecimal("56.7"));
+		}
+		// the right operand has to be converted
+		else {
+			context.put("a", 1234l);
+			context.put("b", "56");
+		}
+		add = Fixtures.analyze("a + b");
+		multiply = Fixtures.analyze("a * b");
+		divide = Fixtures.analyze("a / b");
+		equals = Fixtures.analyze("a == b");
+		greater = Fixtures.analyze("a > b");
+		chain = Fixtures.analyze("a + b * 2 - a / b > 100 && a != b");
+	}
+	
+	@Benchmark
+	public Object add() throws EvaluationException {
+		return add.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object multiply() throws EvaluationException {
+		return multiply.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object divide() throws EvaluationException {
+		return divide.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object equals() throws EvaluationException {
+		return equals.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object greater() throws EvaluationException {
+		return greater.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object chain() throws EvaluationException {
+		return chain.evaluate(context);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryParser;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * The operations and the parser are shared between all threads, this shows contention on the parse cache and the thread local context stacks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+	private Object context;
+	private Operation<Object> comparison, filter, method;
+	
+	@Setup
+	public void setup() {
+		context = Fixtures.newBean(100);
+		comparison = Fixtures.analyze(Fixtures.QUERIES[1]);
+		filter = Fixtures.analyze(Fixtures.QUERIES[2]);
+		method = Fixtures.analyze(Fixtures.QUERIES[3]);
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public Object comparisonSingleThread() throws EvaluationException {
+		return comparison.evaluate(context);
+	}
+	
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object comparison() throws EvaluationException {
+		return comparison.evaluate(context);
+	}
+	
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object filter() throws EvaluationException {
+		return filter.evaluate(context);
+	}
+	
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object method() throws EvaluationException {
+		return method.evaluate(context);
+	}
+	
+	@Benchmark
+	@Threads(Threads.MAX)
+	public List<QueryPart> parseWarm() throws ParseException {
+		return QueryParser.getInstance().parse(Fixtures.QUERIES[2]);
+	}
+}
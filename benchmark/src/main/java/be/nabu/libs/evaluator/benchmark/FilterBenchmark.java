@@ -0,0 +1,77 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.api.Operation;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	private int size;
+	
+	@Param({ "bean", "map" })
+	private String contextType;
+	
+	private Object context;
+	private Operation<Object> filter, filterAndProject, parentReference;
+	
+	@Setup
+	public void setup() {
+		context = contextType.equals("bean") ? Fixtures.newBean(size) : Fixtures.newMap(size);
+		filter = Fixtures.analyze("order/lines[price > 10 && quantity < 5]");
+		filterAndProject = Fixtures.analyze("order/lines[price > 10 && quantity < 5]/price");
+		// the predicate refers to a value outside of the list
+		parentReference = Fixtures.analyze("order/lines[price > ../customer/score]");
+	}
+	
+	@Benchmark
+	public Object filter() throws EvaluationException {
+		return filter.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object filterAndProject() throws EvaluationException {
+		return filterAndProject.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object parentReference() throws EvaluationException {
+		return parentReference.evaluate(context);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.PathAnalyzer;
+import be.nabu.libs.evaluator.QueryParser;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.impl.PlainOperationProvider;
+
+/**
+ * The data the benchmarks run against, the bean and the map versions contain the same data
+ */
+public class Fixtures {
+
+	public static final String [] QUERIES = new String [] {
+		"order/amount + order/customer/score * 2",
+		"order/customer/name == 'john' && order/amount > 500",
+		"order/lines[price > 10 && quantity < 5]/price",
+		"substring(order/customer/name, 1, 2) + '-' + count(order/lines)"
+	};
+	
+	public static Operation<Object> analyze(String query) {
+		try {
+			return new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse(query));
+		}
+		catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+	
+	public static Root newBean(int lines) {
+		Customer customer = new Customer();
+		customer.name = "john";
+		customer.score = 42;
+		Order order = new Order();
+		order.customer = customer;
+		order.amount = new BigDecimal("750.50");
+		for (int i = 0; i < lines; i++) {
+			Line line = new Line();
+			line.price = i % 50;
+			line.quantity = i % 7;
+			order.lines.add(line);
+		}
+		Root root = new Root();
+		root.order = order;
+		return root;
+	}
+	
+	public static Map<String, Object> newMap(int lines) {
+		Map<String, Object> customer = new HashMap<String, Object>();
+		customer.put("name", "john");
+		customer.put("score", 42);
+		List<Map<String, Object>> orderLines = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < lines; i++) {
+			Map<String, Object> line = new HashMap<String, Object>();
+			line.put("price", i % 50);
+			line.put("quantity", i % 7);
+			orderLines.add(line);
+		}
+		Map<String, Object> order = new HashMap<String, Object>();
+		order.put("customer", customer);
+		order.put("amount", new BigDecimal("750.50"));
+		order.put("lines", orderLines);
+		Map<String, Object> root = new HashMap<String, Object>();
+		root.put("order", order);
+		return root;
+	}
+	
+	public static class Root {
+		private Order order;
+		public Order getOrder() {
+			return order;
+		}
+	}
+	
+	public static class Order {
+		private Customer customer;
+		private BigDecimal amount;
+		private List<Line> lines = new ArrayList<Line>();
+		public Customer getCustomer() {
+			return customer;
+		}
+		public BigDecimal getAmount() {
+			return amount;
+		}
+		public List<Line> getLines() {
+			return lines;
+		}
+	}
+	
+	public static class Customer {
+		private String name;
+		private int score;
+		public String getName() {
+			return name;
+		}
+		public int getScore() {
+			return score;
+		}
+	}
+	
+	public static class Line {
+		private int price, quantity;
+		public int getPrice() {
+			return price;
+		}
+		public int getQuantity() {
+			return quantity;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.api.Operation;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodOperationBenchmark {
+
+	private Object context;
+	private Operation<Object> simple, varargs, nested, constant;
+	
+	@Setup
+	public void setup() {
+		context = Fixtures.newMap(100);
+		simple = Fixtures.analyze("substring(order/customer/name, 1, 2)");
+		varargs = Fixtures.analyze("choose(order/missing, order/customer/missing, order/customer/name)");
+		nested = Fixtures.analyze("substringAfter(substring(order/customer/name, 1), 'o')");
+		// all arguments are literals
+		constant = Fixtures.analyze("substring('constant', 1, 2)");
+	}
+	
+	@Benchmark
+	public Object simple() throws EvaluationException {
+		return simple.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object varargs() throws EvaluationException {
+		return varargs.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object nested() throws EvaluationException {
+		return nested.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object constant() throws EvaluationException {
+		return constant.evaluate(context);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.evaluator.QueryParser;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.StringToken;
+
+/**
+ * The cold benchmarks bypass the parse cache of the shared parser so every invocation is parsed from scratch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({ "0", "1", "2", "3" })
+	private int query;
+	
+	private String expression;
+	
+	@Setup
+	public void setup() throws ParseException {
+		expression = Fixtures.QUERIES[query];
+		// make sure the shared instance has it cached
+		QueryParser.getInstance().parse(expression);
+	}
+	
+	@Benchmark
+	public List<StringToken> tokenize() throws ParseException {
+		return QueryParser.getInstance().tokenize(expression);
+	}
+	
+	@Benchmark
+	public List<QueryPart> parseCold() throws ParseException {
+		return QueryParser.getInstance().parseUncached(expression);
+	}
+	
+	@Benchmark
+	public List<QueryPart> parseWarm() throws ParseException {
+		return QueryParser.getInstance().parse(expression);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * In a collection context the paths start from an element of the collection, e.g. "$1/order"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableOperationBenchmark {
+
+	@Param({ "bean", "map", "collection" })
+	private String contextType;
+	
+	private Object context;
+	private Operation<Object> shallow, deep, indexed, collection;
+	
+	@Setup
+	public void setup() {
+		String prefix = "";
+		if (contextType.equals("collection")) {
+			context = Arrays.<Object>asList(Fixtures.newBean(10), Fixtures.newMap(10));
+			prefix = "$1/";
+		}
+		else {
+			context = contextType.equals("bean") ? Fixtures.newBean(10) : Fixtures.newMap(10);
+		}
+		shallow = Fixtures.analyze(prefix + "order");
+		deep = Fixtures.analyze(prefix + "order/customer/name");
+		indexed = Fixtures.analyze(prefix + "order/lines[3]/price");
+		// concatenates the price of every line
+		collection = Fixtures.analyze(prefix + "order/lines/price");
+	}
+	
+	@Benchmark
+	public Object shallow() throws EvaluationException {
+		return shallow.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object deep() throws EvaluationException {
+		return deep.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object indexed() throws EvaluationException {
+		return indexed.evaluate(context);
+	}
+	
+	@Benchmark
+	public Object collection() throws EvaluationException {
+		return collection.evaluate(context);
+	}
+}
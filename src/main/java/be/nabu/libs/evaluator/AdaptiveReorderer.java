@@ -0,0 +1,193 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.Optimizer;
+import be.nabu.libs.evaluator.impl.AdaptiveLogicalOperation;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+
+/**
+ * Suppose you have:
+ *
+ * order/lines[product/category == 'BOOK'] && order/total > 100 && order/country == 'BE'
+ *
+ * The order in which the checks are written is rarely the order in which they are cheapest to evaluate, the best order also depends on the data.
+ * This optimizer replaces chains of AND or OR operators with an operation that measures the cost and selectivity of each operand at runtime and periodically reorders them.
+ *
+ * This is opt-in because operands are no longer guaranteed to be evaluated in the order they were written, so only chains without side effects are reordered.
+ * If operator overloading is possible, the chain is left alone.
+ * Filters are also optimized as they are evaluated for every item and benefit the most.
+ */
+public class AdaptiveReorderer<T> implements Optimizer<T> {
+	
+	private OperationProvider<T> operationProvider;
+	private Map<OperationType, Class<?>> providedClasses = new HashMap<OperationType, Class<?>>();
+	private Integer interval;
+	private AdaptiveLogicalOperation.Clock clock;
+	
+	public AdaptiveReorderer(OperationProvider<T> operationProvider) {
+		this.operationProvider = operationProvider;
+	}
+	
+	@Override
+	public Operation<T> optimize(Operation<T> operation) throws ParseException {
+		return rewrite(operation);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewrite(Operation<T> operation) throws ParseException {
+		Type operator = getLogicalOperator(operation);
+		if (operator != null) {
+			Operation<T> chain = rewriteChain(operation, operator);
+			if (isReorderable(chain)) {
+				List<QueryPart> operands = new ArrayList<QueryPart>();
+				collect(chain, operator, operands);
+				AdaptiveLogicalOperation<T> adaptive = new AdaptiveLogicalOperation<T>(chain, operator, operands);
+				if (interval != null) {
+					adaptive.setInterval(interval);
+				}
+				if (clock != null) {
+					adaptive.setClock(clock);
+				}
+				return adaptive;
+			}
+			return chain;
+		}
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && isTraversable((Operation<T>) part.getContent())) {
+				Operation<T> replacement = rewrite((Operation<T>) part.getContent());
+				if (replacement != part.getContent()) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), replacement));
+					changed = true;
+					continue;
+				}
+			}
+			parts.add(part);
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	// rewrites the operands of the chain but keeps the chain itself, it serves as a fallback
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewriteChain(Operation<T> operation, Type operator) throws ParseException {
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				Operation<T> replacement = child;
+				if (getLogicalOperator(child) == operator) {
+					replacement = rewriteChain(child, operator);
+				}
+				else if (isTraversable(child)) {
+					replacement = rewrite(child);
+				}
+				if (replacement != child) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), replacement));
+					changed = true;
+					continue;
+				}
+			}
+			parts.add(part);
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	// the operands in the order they were written
+	@SuppressWarnings("unchecked")
+	private void collect(Operation<T> operation, Type operator, List<QueryPart> operands) {
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == operator) {
+				continue;
+			}
+			else if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && getLogicalOperator((Operation<T>) part.getContent()) == operator) {
+				collect((Operation<T>) part.getContent(), operator, operands);
+			}
+			else {
+				operands.add(part);
+			}
+		}
+	}
+	
+	private boolean isReorderable(Operation<T> chain) {
+		if (!ClassicOperation.getOperationExecutors().isEmpty() && (!(chain instanceof ClassicOperation) || ((ClassicOperation<T>) chain).isAllowOperatorOverloading())) {
+			return false;
+		}
+		return EvaluationUtils.isSideEffectFree(chain);
+	}
+	
+	// returns the operator if this is a logical operation we can flatten, this can also be a chain that was already flattened
+	private Type getLogicalOperator(Operation<T> operation) {
+		if (operation.getType() != OperationType.CLASSIC || !operation.getClass().equals(getProvidedClass(OperationType.CLASSIC)) || operation.getParts().size() < 3 || operation.getParts().size() % 2 == 0) {
+			return null;
+		}
+		Type type = operation.getParts().get(1).getType();
+		for (int i = 3; i < operation.getParts().size(); i += 2) {
+			if (operation.getParts().get(i).getType() != type) {
+				return null;
+			}
+		}
+		return type == Type.LOGICAL_AND || type == Type.LOGICAL_OR ? type : null;
+	}
+	
+	// we only look inside operations that we can recreate with the provider
+	private boolean isTraversable(Operation<T> operation) {
+		return operation.getType() != OperationType.NATIVE && operation.getClass().equals(getProvidedClass(operation.getType()));
+	}
+	
+	private Class<?> getProvidedClass(OperationType type) {
+		if (!providedClasses.containsKey(type)) {
+			providedClasses.put(type, operationProvider.newOperation(type).getClass());
+		}
+		return providedClasses.get(type);
+	}
+	
+	/**
+	 * The amount of evaluations between reorderings, if not set the system property "evaluator.adaptive.interval" is used
+	 */
+	public Integer getInterval() {
+		return interval;
+	}
+	
+	public void setInterval(Integer interval) {
+		this.interval = interval;
+	}
+	
+	/**
+	 * The clock used to measure the cost of the operands, if not set the system clock is used
+	 */
+	public AdaptiveLogicalOperation.Clock getClock() {
+		return clock;
+	}
+	
+	public void setClock(AdaptiveLogicalOperation.Clock clock) {
+		this.clock = clock;
+	}
+}
@@ -0,0 +1,187 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.impl.VariableOperation;
+
+/**
+ * Evaluates a single operation against a lot of contexts.
+ * The contexts are split into chunks, each chunk is evaluated in one go on a single thread, if you set an executor the chunks are spread over it.
+ * Errors do not stop the batch, they are reported per item.
+ *
+ * If the operation is a path, the context stack of the thread and the evaluation listener are resolved once per chunk instead of once per item.
+ * Other operations are evaluated item by item as usual.
+ */
+public class BatchEvaluator<T> {
+	
+	private Operation<T> operation;
+	private ExecutorService executor;
+	private int chunkSize = Integer.parseInt(System.getProperty("evaluator.batch.chunkSize", "1024"));
+
+	public BatchEvaluator(Operation<T> operation) {
+		this(operation, null);
+	}
+	
+	public BatchEvaluator(Operation<T> operation, ExecutorService executor) {
+		this.operation = operation;
+		this.executor = executor;
+	}
+	
+	public BatchResult evaluateAll(Iterable<T> contexts) throws EvaluationException {
+		if (contexts instanceof List) {
+			return evaluateAll((List<T>) contexts);
+		}
+		List<T> list = new ArrayList<T>();
+		for (T context : contexts) {
+			list.add(context);
+		}
+		return evaluateAll(list);
+	}
+	
+	public BatchResult evaluateAll(final List<T> contexts) throws EvaluationException {
+		final BatchResult result = new BatchResult(contexts.size());
+		// no use dispatching if there is only one chunk
+		if (executor == null || contexts.size() <= chunkSize) {
+			evaluate(contexts, 0, contexts.size(), result);
+		}
+		else {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < contexts.size(); i += chunkSize) {
+				final int from = i;
+				final int to = Math.min(i + chunkSize, contexts.size());
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						evaluate(contexts, from, to, result);
+						return null;
+					}
+				}));
+			}
+			try {
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			}
+			catch (InterruptedException e) {
+				for (Future<?> future : futures) {
+					future.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new EvaluationException("Interrupted while waiting for the batch evaluation", e);
+			}
+			catch (ExecutionException e) {
+				throw new EvaluationException("Could not finish the batch evaluation", e.getCause());
+			}
+		}
+		return result;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void evaluate(List<T> contexts, int from, int to, BatchResult result) {
+		// a path can be evaluated against the context stack directly, unless someone is listening as that would bypass the listener
+		VariableOperation<T> variable = operation.getClass().equals(VariableOperation.class) && EvaluationListenerFactory.getInstance().getListener() == null ? (VariableOperation<T>) operation : null;
+		Stack<T> stack = variable == null ? null : VariableOperation.<T>getCurrentContextStack();
+		// each chunk writes to its own range of the arrays so we don't need to synchronize
+		for (int i = from; i < to; i++) {
+			try {
+				result.results[i] = variable == null ? operation.evaluate(contexts.get(i)) : variable.evaluate(stack, contexts.get(i));
+			}
+			catch (EvaluationException e) {
+				result.setError(i, e);
+			}
+			catch (RuntimeException e) {
+				result.setError(i, new EvaluationException("Could not evaluate item " + i, e));
+			}
+		}
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("The chunk size must be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public static class BatchResult {
+		private Object [] results;
+		private EvaluationException [] errors;
+		private volatile boolean hasErrors;
+		
+		BatchResult(int size) {
+			this.results = new Object[size];
+		}
+		
+		private synchronized void setError(int index, EvaluationException exception) {
+			if (errors == null) {
+				errors = new EvaluationException[results.length];
+			}
+			errors[index] = exception;
+			hasErrors = true;
+		}
+		
+		public int size() {
+			return results.length;
+		}
+		
+		public Object getResult(int index) {
+			return results[index];
+		}
+		
+		public synchronized EvaluationException getError(int index) {
+			return errors == null ? null : errors[index];
+		}
+		
+		public boolean hasErrors() {
+			return hasErrors;
+		}
+		
+		/**
+		 * The results in the order of the contexts, items that failed have a null result
+		 */
+		public List<Object> getResults() {
+			return Collections.unmodifiableList(Arrays.asList(results));
+		}
+	}
+}
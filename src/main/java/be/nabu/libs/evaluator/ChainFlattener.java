@@ -0,0 +1,158 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.Optimizer;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+
+/**
+ * Suppose you have a generated rule like:
+ *
+ * a == 1 || a == 2 || a == 3 || ... || a == 500
+ *
+ * The analyzer turns this into 500 nested binary operations, evaluating it adds a stack frame for each of them and long enough rules will overflow the stack.
+ * This optimizer flattens chains of the same associative operator into a single classic operation with all the operands, e.g. [a == 1, ||, a == 2, ||, a == 3].
+ *
+ * The classic operation evaluates such a chain iteratively in the same order and with the same short circuiting as the nested version.
+ * The chain is walked in the direction the analyzer nests it in (to the right for reverse analyzed operators, to the left for the others), explicit parentheses the other way around are left alone.
+ */
+public class ChainFlattener<T> implements Optimizer<T> {
+	
+	private static List<Type> associative = Arrays.asList(Type.ADD, Type.MULTIPLY, Type.LOGICAL_AND, Type.LOGICAL_OR, Type.XOR, Type.NOT_XOR);
+	
+	private OperationProvider<T> operationProvider;
+	private Map<OperationType, Class<?>> providedClasses = new HashMap<OperationType, Class<?>>();
+	
+	public ChainFlattener(OperationProvider<T> operationProvider) {
+		this.operationProvider = operationProvider;
+	}
+	
+	@Override
+	public Operation<T> optimize(Operation<T> operation) throws ParseException {
+		return rewrite(operation);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewrite(Operation<T> operation) throws ParseException {
+		Type operator = getChainOperator(operation);
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		if (operator != null && PathAnalyzer.reversedEvaluationTypes.contains(operator.getPrecedence())) {
+			// a || (b || (c || d))
+			Operation<T> current = operation;
+			while (true) {
+				parts.add(rewrite(current.getParts().get(0)));
+				parts.add(current.getParts().get(1));
+				QueryPart right = current.getParts().get(2);
+				if (isLink(operation, right, operator)) {
+					current = (Operation<T>) right.getContent();
+					changed = true;
+				}
+				else {
+					parts.add(rewrite(right));
+					break;
+				}
+			}
+		}
+		else if (operator != null) {
+			// ((a + b) + c) + d
+			List<Operation<T>> chain = new ArrayList<Operation<T>>();
+			chain.add(operation);
+			while (isLink(operation, chain.get(chain.size() - 1).getParts().get(0), operator)) {
+				chain.add((Operation<T>) chain.get(chain.size() - 1).getParts().get(0).getContent());
+				changed = true;
+			}
+			Collections.reverse(chain);
+			parts.add(rewrite(chain.get(0).getParts().get(0)));
+			for (Operation<T> link : chain) {
+				parts.add(link.getParts().get(1));
+				parts.add(rewrite(link.getParts().get(2)));
+			}
+		}
+		else {
+			for (QueryPart part : operation.getParts()) {
+				parts.add(rewrite(part));
+			}
+		}
+		if (!changed) {
+			for (int i = 0; i < parts.size(); i++) {
+				if (parts.get(i) != operation.getParts().get(i)) {
+					changed = true;
+					break;
+				}
+			}
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private QueryPart rewrite(QueryPart part) throws ParseException {
+		if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && isTraversable((Operation<T>) part.getContent())) {
+			Operation<T> replacement = rewrite((Operation<T>) part.getContent());
+			if (replacement != part.getContent()) {
+				return new QueryPart(part.getToken(), part.getType(), replacement);
+			}
+		}
+		return part;
+	}
+	
+	// whether the part is a nested operation that belongs to the same chain
+	@SuppressWarnings("unchecked")
+	private boolean isLink(Operation<T> root, QueryPart part, Type operator) {
+		if (part.getType() != Type.OPERATION || !(part.getContent() instanceof Operation)) {
+			return false;
+		}
+		Operation<T> operation = (Operation<T>) part.getContent();
+		return getChainOperator(operation) == operator && (!(root instanceof ClassicOperation) || !(operation instanceof ClassicOperation)
+			|| ((ClassicOperation<T>) root).isAllowOperatorOverloading() == ((ClassicOperation<T>) operation).isAllowOperatorOverloading());
+	}
+	
+	// returns the operator if this is a binary operation that can be part of a chain
+	private Type getChainOperator(Operation<T> operation) {
+		if (operation.getType() != OperationType.CLASSIC || !operation.getClass().equals(getProvidedClass(OperationType.CLASSIC))
+				|| !(operation instanceof ClassicOperation) || operation.getParts().size() != 3) {
+			return null;
+		}
+		Type type = operation.getParts().get(1).getType();
+		return associative.contains(type) ? type : null;
+	}
+	
+	// we only look inside operations that we can recreate with the provider
+	private boolean isTraversable(Operation<T> operation) {
+		return operation.getType() != OperationType.NATIVE && operation.getClass().equals(getProvidedClass(operation.getType()));
+	}
+	
+	private Class<?> getProvidedClass(OperationType type) {
+		if (!providedClasses.containsKey(type)) {
+			providedClasses.put(type, operationProvider.newOperation(type).getClass());
+		}
+		return providedClasses.get(type);
+	}
+}
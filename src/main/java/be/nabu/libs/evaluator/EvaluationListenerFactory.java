@@ -0,0 +1,113 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import be.nabu.libs.evaluator.api.EvaluationListener;
+import be.nabu.libs.evaluator.api.Operation;
+
+public class EvaluationListenerFactory {
+	
+	private static EvaluationListenerFactory instance;
+	
+	public static EvaluationListenerFactory getInstance() {
+		if (instance == null) {
+			synchronized(EvaluationListenerFactory.class) {
+				if (instance == null) {
+					instance = new EvaluationListenerFactory();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	private List<EvaluationListener> listeners = new ArrayList<EvaluationListener>();
+	/**
+	 * The listener that is actually called, if no listeners are registered this is null so the instrumentation can skip everything (including the timing)
+	 */
+	private volatile EvaluationListener listener;
+	
+	private EvaluationListenerFactory() {
+		for (EvaluationListener listener : ServiceLoader.load(EvaluationListener.class)) {
+			listeners.add(listener);
+		}
+		rebuild();
+	}
+	
+	public synchronized void addListener(EvaluationListener listener) {
+		listeners.add(listener);
+		rebuild();
+	}
+	
+	public synchronized void removeListener(EvaluationListener listener) {
+		listeners.remove(listener);
+		rebuild();
+	}
+	
+	public EvaluationListener getListener() {
+		return listener;
+	}
+	
+	private void rebuild() {
+		if (listeners.isEmpty()) {
+			listener = null;
+		}
+		else if (listeners.size() == 1) {
+			listener = listeners.get(0);
+		}
+		else {
+			listener = new CompositeListener(listeners.toArray(new EvaluationListener[listeners.size()]));
+		}
+	}
+	
+	private static class CompositeListener implements EvaluationListener {
+		private EvaluationListener [] listeners;
+		
+		public CompositeListener(EvaluationListener [] listeners) {
+			this.listeners = listeners;
+		}
+		@Override
+		public void parsed(String query, List<QueryPart> parts, long duration, ParseException exception) {
+			for (EvaluationListener listener : listeners) {
+				listener.parsed(query, parts, duration, exception);
+			}
+		}
+		@Override
+		public void analyzed(List<QueryPart> parts, Operation<?> operation, long duration, ParseException exception) {
+			for (EvaluationListener listener : listeners) {
+				listener.analyzed(parts, operation, duration, exception);
+			}
+		}
+		@Override
+		public void evaluated(Operation<?> operation, long duration, Object result, Exception exception) {
+			for (EvaluationListener listener : listeners) {
+				listener.evaluated(operation, duration, result, exception);
+			}
+		}
+		@Override
+		public void iterated(Operation<?> operation, int items) {
+			for (EvaluationListener listener : listeners) {
+				listener.iterated(operation, items);
+			}
+		}
+	}
+}
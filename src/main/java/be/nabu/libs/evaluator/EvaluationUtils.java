@@ -18,25 +18,292 @@
 package be.nabu.libs.evaluator;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import be.nabu.libs.evaluator.api.Operation;
 import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+import be.nabu.libs.evaluator.impl.AdaptiveLogicalOperation;
+import be.nabu.libs.evaluator.impl.CachedOperation;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+import be.nabu.libs.evaluator.impl.FilterScopeOperation;
+import be.nabu.libs.evaluator.impl.MembershipOperation;
+import be.nabu.libs.evaluator.impl.MethodOperation;
+import be.nabu.libs.evaluator.impl.NativeOperation;
+import be.nabu.libs.evaluator.impl.ParameterOperation;
+import be.nabu.libs.evaluator.impl.ScopedOperation;
+import be.nabu.libs.evaluator.impl.SemiJoinOperation;
+import be.nabu.libs.evaluator.impl.VariableOperation;
 
 public class EvaluationUtils {
 	
-	@SuppressWarnings("unchecked")
+	// these operations keep state that can not be rebuilt from their parts (e.g. the operation they wrap or the owner of their scope)
+	private static Set<Class<?>> opaqueOperations = new HashSet<Class<?>>(Arrays.<Class<?>>asList(ParameterOperation.class, PreparedExpression.BoundOperation.class, 
+		CachedOperation.class, ScopedOperation.class, FilterScopeOperation.class, MembershipOperation.class, SemiJoinOperation.class, AdaptiveLogicalOperation.class));
+	
+	/**
+	 * Clones the operation for use with the given provider.
+	 * Subtrees that would behave exactly the same when created by the provider are shared with the original, only the nodes that differ are recreated.
+	 * If a node is only recreated because one of its children differs, it reuses what the original has already resolved (e.g. methods).
+	 * Operations that wrap other operations or depend on a scope (e.g. parameters) are shared as is, operations that can not be recreated from their parts are rejected.
+	 */
 	public static <T> Operation<T> clone(Operation<T> operation, OperationProvider<T> provider) throws ParseException {
-		Operation<T> clone = provider.newOperation(operation.getType());
+		return clone(operation, provider, new HashMap<OperationType, Operation<T>>(), new IdentityHashMap<Operation<T>, Operation<T>>());
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> Operation<T> clone(Operation<T> operation, OperationProvider<T> provider, Map<OperationType, Operation<T>> prototypes, Map<Operation<T>, Operation<T>> cloned) throws ParseException {
+		// operations can be shared (e.g. interned), make sure they stay that way
+		if (cloned.containsKey(operation)) {
+			return cloned.get(operation);
+		}
+		if (opaqueOperations.contains(operation.getClass())) {
+			cloned.put(operation, operation);
+			return operation;
+		}
+		if (!prototypes.containsKey(operation.getType())) {
+			prototypes.put(operation.getType(), provider.newOperation(operation.getType()));
+		}
+		if (!isRebuildable(operation, prototypes.get(operation.getType()))) {
+			throw new IllegalArgumentException("Can not clone an operation of unknown type: " + operation.getClass().getName());
+		}
+		List<QueryPart> parts = new ArrayList<QueryPart>(operation.getParts().size());
+		boolean changed = false;
 		for (QueryPart part : operation.getParts()) {
-			// if the part is a nested operation, clone it
 			if (part.getContent() instanceof Operation) {
-				clone.add(new QueryPart(part.getToken(), part.getType(), clone((Operation<T>) part.getContent(), provider)));
+				Operation<T> child = clone((Operation<T>) part.getContent(), provider, prototypes, cloned);
+				if (child != part.getContent()) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), child));
+					changed = true;
+					continue;
+				}
 			}
-			else {
-				clone.add(part.clone());
+			parts.add(part);
+		}
+		boolean equivalent = isEquivalent(operation, prototypes.get(operation.getType()));
+		Operation<T> clone = operation;
+		if (changed || !equivalent) {
+			clone = provider.newOperation(operation.getType());
+			for (QueryPart part : parts) {
+				clone.add(part);
+			}
+			if (equivalent && clone instanceof MethodOperation) {
+				((MethodOperation<T>) clone).copyResolvedMethods((MethodOperation<T>) operation);
 			}
+			clone.finish();
 		}
-		clone.finish();
+		cloned.put(operation, clone);
 		return clone;
 	}
+	
+	// the standard operations and the ones from the provider itself can be recreated from their parts
+	private static boolean isRebuildable(Operation<?> operation, Operation<?> prototype) {
+		return operation instanceof NativeOperation || operation instanceof VariableOperation || operation instanceof ClassicOperation || operation instanceof MethodOperation
+			|| operation.getClass().equals(prototype.getClass());
+	}
+	
+	/**
+	 * Whether the operations behave the same given the same parts, we only know this for the standard operations
+	 */
+	private static boolean isEquivalent(Operation<?> operation, Operation<?> other) {
+		if (!operation.getClass().equals(other.getClass())) {
+			return false;
+		}
+		else if (operation.getClass().equals(NativeOperation.class)) {
+			return true;
+		}
+		else if (operation.getClass().equals(VariableOperation.class)) {
+			VariableOperation<?> variable = (VariableOperation<?>) operation;
+			VariableOperation<?> otherVariable = (VariableOperation<?>) other;
+			return variable.getAccessor() == otherVariable.getAccessor() 
+				&& variable.isAllowParentLookup() == otherVariable.isAllowParentLookup()
+				&& variable.isAllowRootLookup() == otherVariable.isAllowRootLookup();
+		}
+		else if (operation.getClass().equals(ClassicOperation.class)) {
+			ClassicOperation<?> classic = (ClassicOperation<?>) operation;
+			ClassicOperation<?> otherClassic = (ClassicOperation<?>) other;
+			return classic.getAccessor() == otherClassic.getAccessor()
+				// the getter falls back to the factory, only converters that were explicitly set can be compared
+				&& classic.isDefaultConverter() == otherClassic.isDefaultConverter()
+				&& (classic.isDefaultConverter() || classic.getConverter() == otherClassic.getConverter())
+				&& classic.isAllowOperatorOverloading() == otherClassic.isAllowOperatorOverloading();
+		}
+		else if (operation.getClass().equals(MethodOperation.class)) {
+			MethodOperation<?> method = (MethodOperation<?>) operation;
+			MethodOperation<?> otherMethod = (MethodOperation<?>) other;
+			return method.getDefaultClasses().equals(otherMethod.getDefaultClasses())
+				&& method.getContext() == otherMethod.getContext()
+				&& method.getMethodFilter() == otherMethod.getMethodFilter()
+				&& method.isCaseSensitive() == otherMethod.isCaseSensitive()
+				&& method.isAllowNullCompletion() == otherMethod.isAllowNullCompletion()
+				&& method.isAllowAnyClass() == otherMethod.isAllowAnyClass();
+		}
+		return false;
+	}
+	
+	/**
+	 * Creates a new operation of the same type with the given parts
+	 */
+	public static <T> Operation<T> copy(Operation<T> operation, List<QueryPart> parts, OperationProvider<T> provider) throws ParseException {
+		Operation<T> copy = provider.newOperation(operation.getType());
+		for (QueryPart part : parts) {
+			copy.add(part);
+		}
+		copy.finish();
+		return copy;
+	}
+	
+	/**
+	 * We assume that variable access, literals and operators have no side effects, methods however must be explicitly marked as pure
+	 */
+	public static boolean isSideEffectFree(Operation<?> operation) {
+		if (operation.getType() == OperationType.METHOD && (!(operation instanceof MethodOperation) || !((MethodOperation<?>) operation).isPure())) {
+			return false;
+		}
+		for (QueryPart part : operation.getParts()) {
+			if (part.getContent() instanceof Operation && !isSideEffectFree((Operation<?>) part.getContent())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Two operations are structurally equal if they are built from the same operation classes, parts and literals
+	 */
+	public static boolean isStructurallyEqual(Operation<?> operation, Operation<?> other) {
+		if (operation == other) {
+			return true;
+		}
+		else if (!operation.getClass().equals(other.getClass()) || operation.getParts().size() != other.getParts().size()) {
+			return false;
+		}
+		for (int i = 0; i < operation.getParts().size(); i++) {
+			QueryPart part = operation.getParts().get(i);
+			QueryPart otherPart = other.getParts().get(i);
+			if (part.getType() != otherPart.getType()) {
+				return false;
+			}
+			else if (part.getContent() instanceof Operation && otherPart.getContent() instanceof Operation) {
+				if (!isStructurallyEqual((Operation<?>) part.getContent(), (Operation<?>) otherPart.getContent())) {
+					return false;
+				}
+			}
+			else if (!isSameLiteral(part.getContent(), otherPart.getContent())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * A fingerprint that is consistent with {@link #isStructurallyEqual(Operation, Operation)}
+	 */
+	public static int getStructuralHash(Operation<?> operation) {
+		int hash = operation.getClass().hashCode();
+		for (QueryPart part : operation.getParts()) {
+			hash = 31 * hash + part.getType().hashCode();
+			if (part.getContent() instanceof Operation) {
+				hash = 31 * hash + getStructuralHash((Operation<?>) part.getContent());
+			}
+			else if (part.getContent() != null) {
+				hash = 31 * hash + part.getContent().hashCode();
+			}
+		}
+		return hash;
+	}
+	
+	// literals must be of the same type, 1 and 1l are equal according to the query part but they do not necessarily evaluate to the same thing
+	static boolean isSameLiteral(Object content, Object other) {
+		if (content == null || other == null) {
+			return content == other;
+		}
+		return content.getClass().equals(other.getClass()) && content.equals(other);
+	}
+	
+	/**
+	 * Allows you to use the structure of an operation as a key in a map
+	 */
+	public static class StructuralKey {
+		private Operation<?> operation;
+		private int hash;
+		
+		public StructuralKey(Operation<?> operation) {
+			this.operation = operation;
+			this.hash = getStructuralHash(operation);
+		}
+		
+		public Operation<?> getOperation() {
+			return operation;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof StructuralKey && ((StructuralKey) object).hash == hash && isStructurallyEqual(operation, ((StructuralKey) object).operation);
+		}
+	}
+	
+	/**
+	 * Reduces the memory footprint of an analyzed operation in place: part lists are trimmed and strings (variable segments, method names, literals) are interned.
+	 * If you drop the tokens, the link to the original query is gone so you can no longer reconstruct the source from the operation.
+	 * This must be done before the operation is shared with other threads.
+	 */
+	public static void compact(Operation<?> operation, boolean dropTokens) {
+		compact(operation, dropTokens, new IdentityHashMap<Object, Object>());
+	}
+	
+	private static void compact(Operation<?> operation, boolean dropTokens, Map<Object, Object> compacted) {
+		if (compacted.containsKey(operation)) {
+			return;
+		}
+		compacted.put(operation, operation);
+		boolean changed = false;
+		List<QueryPart> parts = operation.getParts();
+		for (int i = 0; i < parts.size(); i++) {
+			QueryPart part = parts.get(i);
+			if (part.getContent() instanceof Operation) {
+				compact((Operation<?>) part.getContent(), dropTokens, compacted);
+			}
+			// wrapping operations copy the parts of the operation they wrap, make sure they keep sharing them
+			QueryPart replacement = (QueryPart) compacted.get(part);
+			if (replacement == null) {
+				replacement = part;
+				if (part.getContent() instanceof String) {
+					String content = (String) part.getContent();
+					String interned = content.intern();
+					if (interned != content) {
+						replacement = new QueryPart(dropTokens ? null : part.getToken(), part.getType(), interned);
+					}
+				}
+				if (dropTokens && replacement.getToken() != null) {
+					replacement = new QueryPart(part.getType(), replacement.getContent());
+				}
+				compacted.put(part, replacement);
+			}
+			if (replacement != part && operation instanceof BaseOperation) {
+				parts.set(i, replacement);
+				changed = true;
+			}
+		}
+		if (operation instanceof BaseOperation) {
+			((BaseOperation<?>) operation).trimToSize();
+		}
+		// the plan of a variable operation keeps its own reference to the names
+		if (changed && operation instanceof VariableOperation) {
+			((VariableOperation<?>) operation).finish();
+		}
+	}
 }
@@ -0,0 +1,277 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Analyzer;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * Parses and analyzes expressions and keeps the resulting operations around.
+ * This allows you to compile all known expressions up front (e.g. at startup) instead of lazily on first use.
+ * The operations are shared so they must not be modified after compilation.
+ * 
+ * If you turn on auto parameterization, string and number literals are replaced with parameters and the expression is only analyzed once per shape.
+ * For example "id == 1234" and "id  ==  1235" share the same prepared expression, each compilation simply binds other values.
+ * In this mode the parse cache and the compiled cache are bypassed so generated expressions that only differ in their literals do not fill up memory.
+ * 
+ * If you turn on compact mode, the compiled operations are compacted (see {@link EvaluationUtils#compact(Operation, boolean)}) and the parse cache is bypassed.
+ * Additionally dropping the tokens removes all references to the original queries.
+ * 
+ * If you set an interner, identical subtrees are shared between all the compiled operations.
+ */
+public class ExpressionCompiler<T> {
+
+	private QueryParser parser;
+	private Analyzer<T> analyzer;
+	private ConcurrentHashMap<String, Operation<T>> compiled = new ConcurrentHashMap<String, Operation<T>>();
+	private ConcurrentHashMap<String, PreparedExpression<T>> prepared = new ConcurrentHashMap<String, PreparedExpression<T>>();
+	// for each prepared expression the values it was first compiled with, used to warm it up
+	private ConcurrentHashMap<String, Operation<T>> representatives = new ConcurrentHashMap<String, Operation<T>>();
+	private boolean autoParameterize;
+	private boolean compact = Boolean.parseBoolean(System.getProperty("evaluator.compact", "false"));
+	private boolean dropTokens = Boolean.parseBoolean(System.getProperty("evaluator.compact.dropTokens", "false"));
+	private OperationInterner<T> interner;
+	
+	public ExpressionCompiler(Analyzer<T> analyzer) {
+		this(QueryParser.getInstance(), analyzer);
+	}
+	
+	public ExpressionCompiler(QueryParser parser, Analyzer<T> analyzer) {
+		this.parser = parser;
+		this.analyzer = analyzer;
+	}
+	
+	public Operation<T> compile(String expression) throws ParseException {
+		if (autoParameterize) {
+			return compileParameterized(expression);
+		}
+		Operation<T> operation = compiled.get(expression);
+		if (operation == null) {
+			if (compact) {
+				operation = analyzer.analyze(parser.parseUncached(expression));
+				EvaluationUtils.compact(operation, dropTokens);
+			}
+			else {
+				operation = analyzer.analyze(parser.parse(expression));
+			}
+			if (interner != null) {
+				operation = interner.intern(operation);
+			}
+			Operation<T> existing = compiled.putIfAbsent(expression, operation);
+			if (existing != null) {
+				operation = existing;
+			}
+		}
+		return operation;
+	}
+	
+	private Operation<T> compileParameterized(String expression) throws ParseException {
+		List<QueryPart> parts = parser.parseUncached(expression);
+		List<QueryPart> parameterized = new ArrayList<QueryPart>(parts.size());
+		List<Object> values = new ArrayList<Object>();
+		// whitespace is already gone at this point, the key only contains the structure
+		StringBuilder key = new StringBuilder();
+		for (QueryPart part : parts) {
+			// we don't mix explicit and automatic parameters
+			if (part.getType() == Type.PARAMETER) {
+				return analyzer.analyze(parts);
+			}
+			else if (part.getType() == Type.STRING || part.getType() == Type.NUMBER_INTEGER || part.getType() == Type.NUMBER_DECIMAL) {
+				parameterized.add(new QueryPart(part.getToken(), Type.PARAMETER, ""));
+				values.add(part.getContent());
+				key.append(part.getType().name()).append(":?");
+			}
+			else {
+				parameterized.add(part);
+				key.append(part.getType().name()).append(":").append(part.getContent());
+			}
+			key.append(" ");
+		}
+		PreparedExpression<T> preparedExpression = prepared.get(key.toString());
+		if (preparedExpression == null) {
+			preparedExpression = new PreparedExpression<T>(parameterized, ((PathAnalyzer<T>) analyzer).getOperationProvider());
+			if (compact) {
+				EvaluationUtils.compact(preparedExpression.getOperation(), dropTokens);
+			}
+			if (interner != null) {
+				preparedExpression.intern(interner);
+			}
+			PreparedExpression<T> existing = prepared.putIfAbsent(key.toString(), preparedExpression);
+			if (existing != null) {
+				preparedExpression = existing;
+			}
+		}
+		Operation<T> bound = preparedExpression.bind(values.toArray());
+		representatives.putIfAbsent(key.toString(), bound);
+		return bound;
+	}
+	
+	/**
+	 * Returns the compiled operation if it is available, this does not trigger a compilation
+	 */
+	public Operation<T> get(String expression) {
+		return compiled.get(expression);
+	}
+	
+	public void clear() {
+		compiled.clear();
+		prepared.clear();
+		representatives.clear();
+	}
+	
+	public boolean isAutoParameterize() {
+		return autoParameterize;
+	}
+	
+	public void setAutoParameterize(boolean autoParameterize) {
+		if (autoParameterize && !(analyzer instanceof PathAnalyzer)) {
+			throw new IllegalStateException("Auto parameterization requires a path analyzer");
+		}
+		this.autoParameterize = autoParameterize;
+	}
+	
+	public boolean isCompact() {
+		return compact;
+	}
+	
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+	
+	public boolean isDropTokens() {
+		return dropTokens;
+	}
+	
+	public void setDropTokens(boolean dropTokens) {
+		this.dropTokens = dropTokens;
+	}
+	
+	public OperationInterner<T> getInterner() {
+		return interner;
+	}
+	
+	public void setInterner(OperationInterner<T> interner) {
+		this.interner = interner;
+	}
+	
+	/**
+	 * Compiles all the expressions using as many threads as there are processors
+	 */
+	public CompilationResult<T> compileAll(Collection<String> expressions) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			return compileAll(expressions, executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Compiles all the expressions in parallel on the given executor, a failing expression does not stop the others from being compiled
+	 */
+	public CompilationResult<T> compileAll(Collection<String> expressions, ExecutorService executor) throws InterruptedException {
+		Map<String, Future<Operation<T>>> futures = new LinkedHashMap<String, Future<Operation<T>>>();
+		for (final String expression : new LinkedHashSet<String>(expressions)) {
+			futures.put(expression, executor.submit(new Callable<Operation<T>>() {
+				@Override
+				public Operation<T> call() throws Exception {
+					return compile(expression);
+				}
+			}));
+		}
+		CompilationResult<T> result = new CompilationResult<T>();
+		for (Map.Entry<String, Future<Operation<T>>> entry : futures.entrySet()) {
+			try {
+				result.operations.put(entry.getKey(), entry.getValue().get());
+			}
+			catch (ExecutionException e) {
+				result.errors.put(entry.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+			}
+			catch (InterruptedException e) {
+				for (Future<Operation<T>> future : futures.values()) {
+					future.cancel(true);
+				}
+				throw e;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Evaluates all the compiled operations against the sample contexts a number of times so the jit can optimize the hot paths before real traffic comes in.
+	 * Not every expression will make sense for every sample so errors are ignored, the amount of failed evaluations is returned.
+	 * Auto-parameterized expressions are evaluated with the values they were first compiled with.
+	 */
+	public long warmUp(List<T> contexts, int iterations) {
+		List<Operation<T>> operations = new ArrayList<Operation<T>>(compiled.values());
+		operations.addAll(representatives.values());
+		long failed = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (Operation<T> operation : operations) {
+				for (T context : contexts) {
+					try {
+						operation.evaluate(context);
+					}
+					catch (Exception e) {
+						failed++;
+					}
+				}
+			}
+		}
+		return failed;
+	}
+	
+	public QueryParser getParser() {
+		return parser;
+	}
+
+	public Analyzer<T> getAnalyzer() {
+		return analyzer;
+	}
+
+	public static class CompilationResult<T> {
+		private Map<String, Operation<T>> operations = new LinkedHashMap<String, Operation<T>>();
+		private Map<String, Exception> errors = new LinkedHashMap<String, Exception>();
+		
+		public Map<String, Operation<T>> getOperations() {
+			return operations;
+		}
+		public Map<String, Exception> getErrors() {
+			return errors;
+		}
+		public boolean hasErrors() {
+			return !errors.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.Optimizer;
+import be.nabu.libs.evaluator.base.Reserved;
+import be.nabu.libs.evaluator.impl.CachedOperation;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+import be.nabu.libs.evaluator.impl.FilterScopeOperation;
+import be.nabu.libs.evaluator.impl.MethodOperation;
+import be.nabu.libs.evaluator.impl.SemiJoinOperation;
+import be.nabu.libs.evaluator.impl.VariableOperation;
+
+/**
+ * Suppose you have:
+ *
+ * items[price > /config/threshold * 1.2]
+ *
+ * The filter is evaluated for every item but "/config/threshold * 1.2" is the same for all of them.
+ * This optimizer finds the subexpressions of a filter that do not depend on the element and makes sure they are evaluated at most once per filter invocation.
+ *
+ * A subexpression does not depend on the element if it only consists of literals, paths that start from the root ("/") or a parent (".."), pure methods and operators.
+ * The value is calculated when the first element needs it, so nothing is evaluated for an empty collection and it is evaluated in the same context as before.
+ * Paths with filters that can reach back into a parent context are not hoisted as the parent could be the element itself.
+ *
+ * A common case is "orders[customerId # /vips/id]" where the collection on the right does not depend on the element.
+ * Instead of scanning the collection for every element, it is converted into a set once per filter invocation, turning the filter into a hash join (or anti join for "!#").
+ */
+public class FilterHoister<T> implements Optimizer<T> {
+	
+	private OperationProvider<T> operationProvider;
+	private Map<OperationType, Class<?>> providedClasses = new HashMap<OperationType, Class<?>>();
+	
+	public FilterHoister(OperationProvider<T> operationProvider) {
+		this.operationProvider = operationProvider;
+	}
+	
+	@Override
+	public Operation<T> optimize(Operation<T> operation) throws ParseException {
+		return rewrite(operation);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewrite(Operation<T> operation) throws ParseException {
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (int i = 0; i < operation.getParts().size(); i++) {
+			QueryPart part = operation.getParts().get(i);
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && isTraversable((Operation<T>) part.getContent())) {
+				Operation<T> replacement = rewrite((Operation<T>) part.getContent());
+				if (operation instanceof VariableOperation && ((VariableOperation<T>) operation).isFilter(i)) {
+					replacement = hoist(replacement);
+				}
+				if (replacement != part.getContent()) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), replacement));
+					changed = true;
+					continue;
+				}
+			}
+			parts.add(part);
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	private Operation<T> hoist(Operation<T> filter) throws ParseException {
+		Map<Operation<T>, Integer> slots = new IdentityHashMap<Operation<T>, Integer>();
+		Set<Operation<T>> joins = Collections.newSetFromMap(new IdentityHashMap<Operation<T>, Boolean>());
+		if (isCandidate(filter)) {
+			slots.put(filter, 0);
+		}
+		else if (isJoin(filter)) {
+			slots.put(filter, 0);
+			joins.add(filter);
+		}
+		else {
+			collect(filter, slots, joins);
+		}
+		if (slots.isEmpty()) {
+			return filter;
+		}
+		FilterScopeOperation<T> scope = new FilterScopeOperation<T>(slots.size());
+		scope.setOperation(replace(filter, scope, slots, joins));
+		return scope;
+	}
+	
+	// find the largest subexpressions that do not depend on the element
+	@SuppressWarnings("unchecked")
+	private void collect(Operation<T> operation, Map<Operation<T>, Integer> slots, Set<Operation<T>> joins) {
+		boolean allowCandidates = allowsCandidates(operation);
+		for (int i = 0; i < operation.getParts().size(); i++) {
+			QueryPart part = operation.getParts().get(i);
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && !isPredicate(operation, i)) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				if (allowCandidates && isCandidate(child)) {
+					if (!slots.containsKey(child)) {
+						slots.put(child, slots.size());
+					}
+				}
+				else if (allowCandidates && isJoin(child)) {
+					if (!slots.containsKey(child)) {
+						slots.put(child, slots.size());
+						joins.add(child);
+					}
+				}
+				// nested variable operations are evaluated against other contexts, they have their own filters
+				else if (child.getType() != OperationType.VARIABLE && isTraversable(child)) {
+					collect(child, slots, joins);
+				}
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> replace(Operation<T> operation, FilterScopeOperation<T> scope, Map<Operation<T>, Integer> slots, Set<Operation<T>> joins) throws ParseException {
+		if (slots.containsKey(operation)) {
+			return wrap(operation, scope, slots, joins);
+		}
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (int i = 0; i < operation.getParts().size(); i++) {
+			QueryPart part = operation.getParts().get(i);
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && !isPredicate(operation, i)) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				Operation<T> replacement = child;
+				if (slots.containsKey(child)) {
+					replacement = wrap(child, scope, slots, joins);
+				}
+				else if (child.getType() != OperationType.VARIABLE && isTraversable(child)) {
+					replacement = replace(child, scope, slots, joins);
+				}
+				if (replacement != child) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), replacement));
+					changed = true;
+					continue;
+				}
+			}
+			parts.add(part);
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	private Operation<T> wrap(Operation<T> operation, FilterScopeOperation<T> scope, Map<Operation<T>, Integer> slots, Set<Operation<T>> joins) {
+		if (joins.contains(operation)) {
+			return new SemiJoinOperation<T>((ClassicOperation<T>) operation, scope, slots.get(operation));
+		}
+		return new CachedOperation<T>(operation, scope, slots.get(operation));
+	}
+	
+	// "element # collection" where the collection does not depend on the element
+	@SuppressWarnings("unchecked")
+	private boolean isJoin(Operation<T> operation) {
+		if (operation.getType() != OperationType.CLASSIC || !(operation instanceof ClassicOperation) || !isTraversable(operation) || operation.getParts().size() != 3) {
+			return false;
+		}
+		else if (operation.getParts().get(1).getType() != Type.IN && operation.getParts().get(1).getType() != Type.NOT_IN) {
+			return false;
+		}
+		else if (!ClassicOperation.getOperationExecutors().isEmpty() && ((ClassicOperation<T>) operation).isAllowOperatorOverloading()) {
+			return false;
+		}
+		QueryPart right = operation.getParts().get(2);
+		return right.getType() == Type.OPERATION && right.getContent() instanceof Operation && isCandidate((Operation<T>) right.getContent());
+	}
+	
+	// native operations are not worth caching
+	private boolean isCandidate(Operation<T> operation) {
+		return operation.getType() != OperationType.NATIVE && isInvariant(operation);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private boolean isInvariant(Operation<T> operation) {
+		switch (operation.getType()) {
+			case NATIVE:
+				return true;
+			case VARIABLE:
+				return operation instanceof VariableOperation && ((VariableOperation<T>) operation).isAnchored() && EvaluationUtils.isSideEffectFree(operation) && !canReachParent(operation, true);
+			case METHOD:
+				if (!(operation instanceof MethodOperation) || !((MethodOperation<T>) operation).isPure() || !isTraversable(operation)) {
+					return false;
+				}
+			break;
+			case CLASSIC:
+				if (!isTraversable(operation)) {
+					return false;
+				}
+			break;
+		}
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.PARAMETER) {
+				continue;
+			}
+			else if (part.getType() == Type.OPERATION && (!(part.getContent() instanceof Operation) || !isInvariant((Operation<T>) part.getContent()))) {
+				return false;
+			}
+			else if (part.getType() == Type.VARIABLE) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// whether a nested path could resolve against a parent context, which could be the element we are filtering
+	@SuppressWarnings("unchecked")
+	private boolean canReachParent(Operation<T> operation, boolean root) {
+		if (!root && operation instanceof VariableOperation) {
+			VariableOperation<T> variable = (VariableOperation<T>) operation;
+			if (variable.isAllowParentLookup() || (variable.getParts().size() > 0 && "..".equals(variable.getParts().get(0).getContent()))) {
+				return true;
+			}
+		}
+		for (QueryPart part : operation.getParts()) {
+			if (part.getContent() instanceof Operation && canReachParent((Operation<T>) part.getContent(), false)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// predicates are evaluated against other contexts, like nested variable operations
+	private boolean isPredicate(Operation<T> operation, int index) {
+		return operation instanceof MethodOperation && ((MethodOperation<T>) operation).isPredicate(index);
+	}
+	
+	// the undefined check needs access to the actual variable operation
+	private boolean allowsCandidates(Operation<T> operation) {
+		for (QueryPart part : operation.getParts()) {
+			if (Reserved.UNDEFINED.equals(part.getContent())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// we only look inside operations that we can recreate with the provider
+	private boolean isTraversable(Operation<T> operation) {
+		return operation.getType() != OperationType.NATIVE && operation.getClass().equals(getProvidedClass(operation.getType()));
+	}
+	
+	private Class<?> getProvidedClass(OperationType type) {
+		if (!providedClasses.containsKey(type)) {
+			providedClasses.put(type, operationProvider.newOperation(type).getClass());
+		}
+		return providedClasses.get(type);
+	}
+}
@@ -0,0 +1,344 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Analyzer;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * Keeps track of a single query that is being edited, for example in an editor that validates as you type.
+ * When the query is edited, only the tokens around the edit are tokenized and interpreted again, the rest is reused from the previous version.
+ * When analyzing, grouping scopes (e.g. "(a + b)") that have not changed reuse the operation of the previous version so only the scopes that contain the edit are analyzed again.
+ *
+ * For valid queries the result is the same as a full parse and analysis. Invalid queries are always reported by the parser but the analyzer is lenient with some invalid constructs (e.g. "a + (b c)"), for those the analysis may differ.
+ *
+ * Nothing is added to the parse cache of the query parser so intermediate versions of the query do not pollute it.
+ * This class is not thread safe.
+ */
+public class IncrementalParser<T> {
+	
+	private QueryParser parser;
+	private Analyzer<T> analyzer;
+	
+	private String query;
+	private List<StringToken> tokens;
+	private List<QueryPart> parts;
+	private Operation<T> operation;
+	
+	/**
+	 * The analyzed grouping scopes of the previous version, keyed by their content
+	 */
+	private Map<String, Operation<T>> scopes = new HashMap<String, Operation<T>>();
+	
+	public IncrementalParser(Analyzer<T> analyzer) {
+		this(QueryParser.getInstance(), analyzer);
+	}
+	
+	public IncrementalParser(QueryParser parser, Analyzer<T> analyzer) {
+		this.parser = parser;
+		this.analyzer = analyzer;
+	}
+	
+	/**
+	 * Parses the query as a whole
+	 */
+	public List<QueryPart> parse(String query) throws ParseException {
+		this.query = query;
+		this.tokens = null;
+		this.parts = null;
+		this.operation = null;
+		tokens = parser.tokenize(query);
+		parts = parser.interpret(tokens, false);
+		parser.validate(parts);
+		return parts;
+	}
+	
+	/**
+	 * Replaces the given amount of characters at the offset with the replacement, the replacement can be empty to delete text
+	 * If the edit results in an invalid query, an exception is thrown but the edit is still applied, you can continue editing
+	 */
+	public List<QueryPart> edit(int offset, int length, String replacement) throws ParseException {
+		if (query == null) {
+			throw new IllegalStateException("Nothing has been parsed yet");
+		}
+		String newQuery = query.substring(0, offset) + replacement + query.substring(offset + length);
+		// if the previous version could not be tokenized, we have nothing to start from
+		if (tokens == null || parts == null) {
+			return parse(newQuery);
+		}
+		List<StringToken> oldTokens = tokens;
+		List<QueryPart> oldParts = parts;
+		query = newQuery;
+		tokens = null;
+		parts = null;
+		operation = null;
+		
+		int delta = replacement.length() - length;
+		// the first token that can be affected is the one that ends at or after the edit, we take one extra token for regexes that look around
+		int restart = 0;
+		while (restart < oldTokens.size() && oldTokens.get(restart).getEnd() < offset) {
+			restart++;
+		}
+		restart = Math.max(0, restart - 1);
+		
+		List<StringToken> newTokens = new ArrayList<StringToken>(oldTokens.size() + 4);
+		for (int i = 0; i < restart; i++) {
+			newTokens.add(rebase(oldTokens.get(i), newQuery, 0));
+		}
+		int editEnd = offset + replacement.length();
+		int from = restart == 0 ? 0 : oldTokens.get(restart).getPreambleStart();
+		Matcher matcher = parser.getTokenPattern().matcher(newQuery).region(from, newQuery.length()).useTransparentBounds(true).useAnchoringBounds(false);
+		int last = from - 1;
+		// the index of the first old token that can be reused after the edit
+		int resync = -1;
+		int candidate = restart;
+		while (matcher.find()) {
+			if (!parser.isLenient() && matcher.start() > last + 1 && !QueryParser.isWhitespace(newQuery, last + 1, matcher.start())) {
+				String preamble = newQuery.substring(last + 1, matcher.start());
+				throw new ParseException("Invalid token detected in [" + (last + 1) + ", " + matcher.start() + "]: '" + preamble + "' of '" + newQuery + "'", last + 1);
+			}
+			newTokens.add(new StringToken(newQuery, last + 1, matcher.start(), matcher.end()));
+			last = matcher.end() - 1;
+			// regexes can look back a few characters, so we only resync once we are far enough from the edit
+			if (matcher.end() >= editEnd + 2) {
+				while (candidate < oldTokens.size() && oldTokens.get(candidate).getEnd() + delta < matcher.end()) {
+					candidate++;
+				}
+				if (candidate < oldTokens.size() && oldTokens.get(candidate).getEnd() + delta == matcher.end() && oldTokens.get(candidate).getStart() + delta == matcher.start()) {
+					resync = candidate + 1;
+					break;
+				}
+			}
+		}
+		// the amount of new tokens before we reuse the old ones again
+		int tokenized = newTokens.size();
+		if (resync >= 0) {
+			for (int i = resync; i < oldTokens.size(); i++) {
+				newTokens.add(rebase(oldTokens.get(i), newQuery, delta));
+			}
+		}
+		if (newTokens.size() == 0) {
+			throw new ParseException("The query contains no identifiable tokens", 0);
+		}
+		tokens = newTokens;
+		
+		// interpretation depends on the previous token (e.g. a "-" that is merged into a number) and the next token (e.g. a method needs a "(")
+		int start = Math.max(0, restart - 1);
+		int stop = resync >= 0 ? Math.min(tokenized + 2, newTokens.size()) : newTokens.size();
+		
+		// reuse all the parts that end before the first token we interpret again
+		List<QueryPart> newParts = new ArrayList<QueryPart>(oldParts.size() + 4);
+		// the tokens up to the restart are the same in both versions
+		int boundary = oldTokens.get(start).getStart();
+		int prefix = 0;
+		while (prefix < oldParts.size() && oldParts.get(prefix).getToken().getEnd() <= boundary) {
+			newParts.add(rebase(oldParts.get(prefix), newQuery, 0));
+			prefix++;
+		}
+		// a part can span multiple tokens, make sure we interpret from the first token that is not covered
+		int covered = prefix == 0 ? 0 : oldParts.get(prefix - 1).getToken().getEnd();
+		while (start > 0 && newTokens.get(start - 1).getStart() >= covered) {
+			start--;
+		}
+		
+		// the old parts we can reuse after the interpreted region must start exactly at a token boundary
+		int suffix = -1;
+		while (stop < newTokens.size()) {
+			int oldStart = newTokens.get(stop).getStart() - delta;
+			suffix = indexOf(oldParts, oldStart);
+			if (suffix >= 0) {
+				break;
+			}
+			stop++;
+		}
+		parser.interpret(newTokens, start, stop, newParts, false);
+		if (suffix >= 0 && stop < newTokens.size()) {
+			for (int i = suffix; i < oldParts.size(); i++) {
+				newParts.add(rebase(oldParts.get(i), newQuery, delta));
+			}
+		}
+		parts = newParts;
+		parser.validate(parts);
+		return parts;
+	}
+	
+	/**
+	 * Analyzes the current version of the query, grouping scopes that did not change since the previous analysis are not analyzed again
+	 */
+	public Operation<T> analyze() throws ParseException {
+		if (parts == null) {
+			throw new ParseException("The query '" + query + "' is not valid", 0);
+		}
+		if (operation == null) {
+			Map<String, Operation<T>> analyzed = new HashMap<String, Operation<T>>();
+			operation = analyzer.analyze(substitute(0, parts.size(), analyzed));
+			scopes = analyzed;
+		}
+		return operation;
+	}
+	
+	/**
+	 * Replaces all the grouping scopes in the given range with their operation
+	 */
+	private List<QueryPart> substitute(int from, int to, Map<String, Operation<T>> analyzed) throws ParseException {
+		List<QueryPart> result = new ArrayList<QueryPart>();
+		int i = from;
+		while (i < to) {
+			QueryPart part = parts.get(i);
+			if (part.getType() == Type.SCOPE_START && isGrouping(i)) {
+				int end = getScopeEnd(i, to);
+				// empty scopes and scopes that can not be analyzed on their own are left to the analyzer
+				if (end > i + 1 && isSelfContained(i + 1, end)) {
+					String key = getKey(i + 1, end);
+					Operation<T> scope = analyzed.get(key);
+					if (scope == null) {
+						scope = scopes.get(key);
+					}
+					if (scope == null) {
+						try {
+							scope = analyzer.analyze(substitute(i + 1, end, analyzed));
+						}
+						// in the context of the full query, the analyzer might treat invalid scopes differently, e.g. by using the scope start as an operand
+						catch (ParseException e) {
+							scope = null;
+						}
+					}
+					if (scope != null) {
+						analyzed.put(key, scope);
+						result.add(new QueryPart(part.getToken(), Type.OPERATION, scope));
+					}
+					else {
+						result.addAll(parts.subList(i, end + 1));
+					}
+					i = end + 1;
+					continue;
+				}
+			}
+			result.add(part);
+			i++;
+		}
+		return result;
+	}
+	
+	// a scope that follows a method, variable, index or other scope is a method call
+	// we also leave scopes in method calls and nested scopes to the analyzer, it handles edge cases like empty arguments differently in context
+	private boolean isGrouping(int index) {
+		return index == 0 || parts.get(index - 1).getType().isOperator();
+	}
+	
+	private int getScopeEnd(int start, int to) throws ParseException {
+		int depth = 0;
+		for (int i = start; i < to; i++) {
+			if (parts.get(i).getType() == Type.SCOPE_START) {
+				depth++;
+			}
+			else if (parts.get(i).getType() == Type.SCOPE_STOP && --depth == 0) {
+				return i;
+			}
+		}
+		throw new ParseException("Unclosed scope", start);
+	}
+	
+	// separators are only valid in method calls and empty scopes that are not method calls are handled differently in context
+	// in context, an operator at the edge of the scope would use the scope boundary as operand
+	private boolean isSelfContained(int from, int to) {
+		if (parts.get(from).getType().isOperator() && parts.get(from).getType().hasLeftOperand()) {
+			return false;
+		}
+		else if (parts.get(to - 1).getType().isOperator() && parts.get(to - 1).getType().hasRightOperand()) {
+			return false;
+		}
+		int depth = 0;
+		for (int i = from; i < to; i++) {
+			if (parts.get(i).getType() == Type.SCOPE_START) {
+				if (i + 1 < to && parts.get(i + 1).getType() == Type.SCOPE_STOP && (i == from || parts.get(i - 1).getType() != Type.METHOD)) {
+					return false;
+				}
+				depth++;
+			}
+			else if (parts.get(i).getType() == Type.SCOPE_STOP) {
+				depth--;
+			}
+			else if (parts.get(i).getType() == Type.SEPARATOR && depth == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private String getKey(int from, int to) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			QueryPart part = parts.get(i);
+			builder.append(part.getType().name()).append(":");
+			if (part.getContent() != null) {
+				String content = part.getContent().toString();
+				builder.append(part.getContent().getClass().getName()).append("[").append(content.length()).append("]").append(content);
+			}
+			builder.append(";");
+		}
+		return builder.toString();
+	}
+	
+	// the parts are ordered so we can do a binary search on the start of their token
+	private static int indexOf(List<QueryPart> parts, int start) {
+		int low = 0, high = parts.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleStart = parts.get(middle).getToken().getStart();
+			if (middleStart < start) {
+				low = middle + 1;
+			}
+			else if (middleStart > start) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+	
+	// the tokens must refer to the new query, otherwise we keep every version of the query in memory
+	private static StringToken rebase(StringToken token, String query, int delta) {
+		return new StringToken(query, token.getPreambleStart() + delta, token.getStart() + delta, token.getEnd() + delta);
+	}
+	
+	private static QueryPart rebase(QueryPart part, String query, int delta) {
+		return new QueryPart(rebase(part.getToken(), query, delta), part.getType(), part.getContent());
+	}
+	
+	public String getQuery() {
+		return query;
+	}
+	
+	/**
+	 * The parts of the current version, this is null if the current version could not be parsed
+	 */
+	public List<QueryPart> getParts() {
+		return parts;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.Optimizer;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+import be.nabu.libs.evaluator.impl.MembershipOperation;
+
+/**
+ * Suppose you have:
+ *
+ * status == 'A' || status == 'B' || status == 'C' || status == 'D'
+ *
+ * The status is resolved and compared up to four times. This optimizer replaces consecutive equalities on the same path with an operation that resolves the path once and looks it up in a set.
+ *
+ * As with the rule index the path must be on the left side so the literals are converted the same way the equality would do it, and it must not have side effects.
+ * Other operands in the same chain are kept as they are, in the same order. If operator overloading is possible, the chain is left alone.
+ */
+public class MembershipRewriter<T> implements Optimizer<T> {
+	
+	private OperationProvider<T> operationProvider;
+	private Map<OperationType, Class<?>> providedClasses = new HashMap<OperationType, Class<?>>();
+	private int minimumSize = 3;
+	
+	public MembershipRewriter(OperationProvider<T> operationProvider) {
+		this.operationProvider = operationProvider;
+	}
+	
+	@Override
+	public Operation<T> optimize(Operation<T> operation) throws ParseException {
+		return rewrite(operation);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewrite(Operation<T> operation) throws ParseException {
+		if (isDisjunction(operation)) {
+			return rewriteDisjunction(operation);
+		}
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && isTraversable((Operation<T>) part.getContent())) {
+				Operation<T> replacement = rewrite((Operation<T>) part.getContent());
+				if (replacement != part.getContent()) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), replacement));
+					changed = true;
+					continue;
+				}
+			}
+			parts.add(part);
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewriteDisjunction(Operation<T> operation) throws ParseException {
+		// the operands and the operators between them, nested chains are walked to the right as that is how the analyzer builds them
+		List<QueryPart> operands = new ArrayList<QueryPart>();
+		List<QueryPart> operators = new ArrayList<QueryPart>();
+		boolean changed = false;
+		Operation<T> current = operation;
+		while (current != null) {
+			List<QueryPart> parts = current.getParts();
+			current = null;
+			for (int i = 0; i < parts.size(); i++) {
+				QueryPart part = parts.get(i);
+				if (i % 2 == 1) {
+					operators.add(part);
+				}
+				else if (i == parts.size() - 1 && part.getContent() instanceof Operation && isDisjunction((Operation<T>) part.getContent())) {
+					current = (Operation<T>) part.getContent();
+				}
+				else {
+					QueryPart replacement = part;
+					if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation && isTraversable((Operation<T>) part.getContent())) {
+						Operation<T> child = rewrite((Operation<T>) part.getContent());
+						if (child != part.getContent()) {
+							replacement = new QueryPart(part.getToken(), part.getType(), child);
+							changed = true;
+						}
+					}
+					operands.add(replacement);
+				}
+			}
+		}
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (int i = 0; i < operands.size(); i++) {
+			// find the consecutive equalities on the same path
+			Operation<T> path = getPath(operands.get(i));
+			int end = i + 1;
+			if (path != null) {
+				while (end < operands.size() && getPath(operands.get(end)) != null && EvaluationUtils.isStructurallyEqual(path, getPath(operands.get(end)))) {
+					end++;
+				}
+			}
+			if (i > 0) {
+				parts.add(operators.get(i - 1));
+			}
+			if (end - i >= minimumSize) {
+				List<QueryPart> equalities = new ArrayList<QueryPart>();
+				List<Object> literals = new ArrayList<Object>();
+				for (int j = i; j < end; j++) {
+					if (j > i) {
+						equalities.add(operators.get(j - 1));
+					}
+					equalities.add(operands.get(j));
+					literals.add(((Operation<T>) operands.get(j).getContent()).getParts().get(2).getContent());
+				}
+				Operation<T> original = EvaluationUtils.copy(operation, equalities, operationProvider);
+				parts.add(new QueryPart(operands.get(i).getToken(), Type.OPERATION, new MembershipOperation<T>(original, path, literals)));
+				changed = true;
+				i = end - 1;
+			}
+			else {
+				parts.add(operands.get(i));
+			}
+		}
+		if (!changed) {
+			return operation;
+		}
+		else if (parts.size() == 1) {
+			return (Operation<T>) parts.get(0).getContent();
+		}
+		// the remaining operands form a flattened chain
+		return EvaluationUtils.copy(operation, parts, operationProvider);
+	}
+	
+	// returns the path if the operand is an equality between a side effect free path and a literal
+	@SuppressWarnings("unchecked")
+	private Operation<T> getPath(QueryPart operand) {
+		if (operand.getType() != Type.OPERATION || !(operand.getContent() instanceof Operation)) {
+			return null;
+		}
+		Operation<T> operation = (Operation<T>) operand.getContent();
+		if (!isPlainClassic(operation) || operation.getParts().size() != 3 || operation.getParts().get(1).getType() != Type.EQUALS) {
+			return null;
+		}
+		QueryPart literal = operation.getParts().get(2);
+		if (!(operation.getParts().get(0).getContent() instanceof Operation) || !literal.getType().isNative() || literal.getContent() == null
+				|| literal.getType() == Type.NULL || literal.getType() == Type.UNDEFINED || literal.getType() == Type.PARAMETER) {
+			return null;
+		}
+		Operation<T> path = (Operation<T>) operation.getParts().get(0).getContent();
+		return EvaluationUtils.isSideEffectFree(path) ? path : null;
+	}
+	
+	// a (possibly flattened) chain of "||"
+	private boolean isDisjunction(Operation<T> operation) {
+		if (!isPlainClassic(operation) || operation.getParts().size() < 3 || operation.getParts().size() % 2 == 0) {
+			return false;
+		}
+		for (int i = 1; i < operation.getParts().size(); i += 2) {
+			if (operation.getParts().get(i).getType() != Type.LOGICAL_OR) {
+				return false;
+			}
+		}
+		return ClassicOperation.getOperationExecutors().isEmpty() || !((ClassicOperation<T>) operation).isAllowOperatorOverloading();
+	}
+	
+	private boolean isPlainClassic(Operation<T> operation) {
+		return operation instanceof ClassicOperation && operation.getClass().equals(getProvidedClass(OperationType.CLASSIC));
+	}
+	
+	// we only look inside operations that we can recreate with the provider
+	private boolean isTraversable(Operation<T> operation) {
+		return operation.getType() != OperationType.NATIVE && operation.getClass().equals(getProvidedClass(operation.getType()));
+	}
+	
+	private Class<?> getProvidedClass(OperationType type) {
+		if (!providedClasses.containsKey(type)) {
+			providedClasses.put(type, operationProvider.newOperation(type).getClass());
+		}
+		return providedClasses.get(type);
+	}
+	
+	/**
+	 * The minimum amount of consecutive equalities before they are replaced with a lookup
+	 */
+	public int getMinimumSize() {
+		return minimumSize;
+	}
+	
+	public void setMinimumSize(int minimumSize) {
+		this.minimumSize = minimumSize;
+	}
+}
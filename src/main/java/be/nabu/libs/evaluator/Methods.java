@@ -17,10 +17,35 @@
 
 package be.nabu.libs.evaluator;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.evaluator.annotations.Pure;
+import be.nabu.libs.evaluator.annotations.Streaming;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.ResultVisitor;
+import be.nabu.libs.evaluator.impl.ElementPredicate;
+import be.nabu.libs.evaluator.impl.PlainOperationProvider;
+import be.nabu.libs.evaluator.impl.StreamedResult;
 
 public class Methods {
 
+	@Pure
 	public static Object choose(Object...possiblities) {
 		for (int i = 0; i < possiblities.length; i++) {
 			if (possiblities[i] != null) {
@@ -30,34 +55,508 @@ public class Methods {
 		return null;
 	}
 	
+	@Pure
 	public static boolean exists(Object object) {
 		return object != null;
 	}
 	
+	@Pure
 	public static boolean not(Boolean result) {
 		return result == null || !result;
 	}
 	
+	@Pure
 	public static String substringAfter(String original, String target) {
 		return original.substring(
 			original.indexOf(target) + target.length()
 		);
 	}
 	
+	@Pure
 	public static String substring(String original, int offset) {
 		return original.substring(offset);
 	}
 	
+	@Pure
 	public static String substring(String original, int offset, int length) {
 		return original.substring(offset, offset + length);
 	}
 	
+	@Pure
+	@Streaming
 	public static Integer count(Object object) {
 		if (object instanceof List)
 			return ((List<?>) object).size();
 		else if (object instanceof Object[])
 			return ((Object[]) object).length;
+		else if (object instanceof Collection)
+			return ((Collection<?>) object).size();
+		// lazy series and streamed paths are counted without resolving the elements
+		else if (object instanceof Iterable) {
+			final int [] count = new int[1];
+			try {
+				StreamedResult.visit(object, new ResultVisitor() {
+					@Override
+					public boolean visit(Object element) {
+						count[0]++;
+						return true;
+					}
+				});
+			}
+			catch (EvaluationException e) {
+				throw new RuntimeException(e);
+			}
+			return count[0];
+		}
 		else
 			return 1;
 	}
+	
+	/**
+	 * Sums all the values that are not null, the result is a long for integral values, a double if there are floating point values and a big decimal if there are big numbers or the long overflows
+	 */
+	@Pure
+	@Streaming
+	public static Number sum(Object values) throws EvaluationException {
+		Accumulator accumulator = new Accumulator();
+		StreamedResult.visit(values, accumulator);
+		return accumulator.getSum();
+	}
+	
+	/**
+	 * The average of all the values that are not null, null if there are none
+	 */
+	@Pure
+	@Streaming
+	public static Number avg(Object values) throws EvaluationException {
+		Accumulator accumulator = new Accumulator();
+		StreamedResult.visit(values, accumulator);
+		return accumulator.getAverage();
+	}
+	
+	@Pure
+	@Streaming
+	public static Object min(Object values) throws EvaluationException {
+		Extreme extreme = new Extreme(-1);
+		StreamedResult.visit(values, extreme);
+		return extreme.value;
+	}
+	
+	@Pure
+	@Streaming
+	public static Object max(Object values) throws EvaluationException {
+		Extreme extreme = new Extreme(1);
+		StreamedResult.visit(values, extreme);
+		return extreme.value;
+	}
+	
+	/**
+	 * Sorts the values on the result of the key expression (e.g. "amount" or "customer/name"), the sort is stable and elements without a key come last
+	 * If no key expression is given, the values themselves are sorted
+	 */
+	@Streaming
+	public static List<Object> sortBy(Object values, String key, Boolean descending) throws EvaluationException {
+		List<Keyed> keyed = extract(values, key);
+		Collections.sort(keyed, getComparator(keyed, descending != null && descending));
+		return unwrap(keyed);
+	}
+	
+	/**
+	 * Returns the amount of values with the largest key (or the smallest if ascending), in that order
+	 * Only the amount of values that are requested are kept in memory
+	 */
+	@Streaming
+	public static List<Object> topN(Object values, String key, Integer amount, Boolean ascending) throws EvaluationException {
+		if (amount == null || amount <= 0) {
+			return new ArrayList<Object>();
+		}
+		final Operation<Object> operation = compileKey(key);
+		final int limit = amount;
+		final Comparator<Keyed> comparator = new KeyComparator(ascending == null || !ascending);
+		// the head of the heap is the worst value we are keeping
+		final PriorityQueue<Keyed> heap = new PriorityQueue<Keyed>(Math.min(limit, 1024) + 1, Collections.reverseOrder(comparator));
+		StreamedResult.visit(values, new ResultVisitor() {
+			private int index;
+			@Override
+			public boolean visit(Object element) throws EvaluationException {
+				Keyed keyed = new Keyed(resolve(element), index++);
+				keyed.setKey(operation == null ? keyed.element : operation.evaluate(keyed.element));
+				if (heap.size() < limit) {
+					heap.add(keyed);
+				}
+				else if (comparator.compare(keyed, heap.peek()) < 0) {
+					heap.poll();
+					heap.add(keyed);
+				}
+				return true;
+			}
+		});
+		List<Keyed> keyed = new ArrayList<Keyed>(heap);
+		Collections.sort(keyed, comparator);
+		return unwrap(keyed);
+	}
+	
+	/**
+	 * Keeps the first value for each distinct key, in the original order
+	 * If no key expression is given, the values themselves are compared
+	 */
+	@Streaming
+	public static List<Object> distinct(Object values, String key) throws EvaluationException {
+		final Operation<Object> operation = compileKey(key);
+		final Set<Object> keys = new HashSet<Object>();
+		final List<Object> result = new ArrayList<Object>();
+		StreamedResult.visit(values, new ResultVisitor() {
+			@Override
+			public boolean visit(Object element) throws EvaluationException {
+				element = resolve(element);
+				if (keys.add(hashKey(operation == null ? element : operation.evaluate(element)))) {
+					result.add(element);
+				}
+				return true;
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Groups the values on the result of the key expression, the groups and the values within a group are in the original order
+	 */
+	@Streaming
+	public static Map<Object, List<Object>> groupBy(Object values, String key) throws EvaluationException {
+		final Operation<Object> operation = compileKey(key);
+		// the key of the first value in the group is used for the result
+		final Map<Object, List<Object>> groups = new HashMap<Object, List<Object>>();
+		final Map<Object, List<Object>> result = new LinkedHashMap<Object, List<Object>>();
+		StreamedResult.visit(values, new ResultVisitor() {
+			@Override
+			public boolean visit(Object element) throws EvaluationException {
+				element = resolve(element);
+				Object value = operation == null ? element : operation.evaluate(element);
+				Object hashKey = hashKey(value);
+				List<Object> group = groups.get(hashKey);
+				if (group == null) {
+					group = new ArrayList<Object>();
+					groups.put(hashKey, group);
+					result.put(value, group);
+				}
+				group.add(element);
+				return true;
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Whether at least one value matches the predicate (e.g. "any(orders, amount > ../threshold)"), it stops at the first match
+	 * The predicate is evaluated like a filter: "$this" is the value and ".." is the context the method is called in
+	 * Without a predicate, the values themselves are tested: true or anything other than false and null matches
+	 * The predicate is evaluated once per value so these methods are not pure
+	 */
+	@Streaming
+	public static boolean any(Object values, ElementPredicate<?> predicate) throws EvaluationException {
+		return !quantify(values, predicate, true);
+	}
+	
+	/**
+	 * Whether all the values match the predicate, it stops at the first value that does not match
+	 */
+	@Streaming
+	public static boolean all(Object values, ElementPredicate<?> predicate) throws EvaluationException {
+		return quantify(values, predicate, false);
+	}
+	
+	/**
+	 * Whether none of the values match the predicate, it stops at the first match
+	 */
+	@Streaming
+	public static boolean none(Object values, ElementPredicate<?> predicate) throws EvaluationException {
+		return quantify(values, predicate, true);
+	}
+	
+	// returns true if no value was found that matches the decisive outcome
+	private static boolean quantify(Object values, final ElementPredicate<?> predicate, final boolean decisive) throws EvaluationException {
+		return StreamedResult.visit(values, new ResultVisitor() {
+			@Override
+			public boolean visit(Object element) throws EvaluationException {
+				element = resolve(element);
+				boolean matches = predicate == null ? element != null && !Boolean.FALSE.equals(element) : predicate.test(element);
+				return matches != decisive;
+			}
+		});
+	}
+	
+	private static ExpressionCompiler<Object> keyCompiler = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+	
+	private static Operation<Object> compileKey(String key) throws EvaluationException {
+		if (key == null || key.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			return keyCompiler.compile(key);
+		}
+		catch (ParseException e) {
+			throw new EvaluationException("Invalid key expression: " + key, e);
+		}
+	}
+	
+	private static List<Keyed> extract(Object values, String key) throws EvaluationException {
+		final Operation<Object> operation = compileKey(key);
+		final List<Keyed> keyed = new ArrayList<Keyed>();
+		StreamedResult.visit(values, new ResultVisitor() {
+			@Override
+			public boolean visit(Object element) throws EvaluationException {
+				Keyed single = new Keyed(resolve(element), keyed.size());
+				single.setKey(operation == null ? single.element : operation.evaluate(single.element));
+				keyed.add(single);
+				return true;
+			}
+		});
+		return keyed;
+	}
+	
+	private static List<Object> unwrap(List<Keyed> keyed) {
+		List<Object> result = new ArrayList<Object>(keyed.size());
+		for (Keyed single : keyed) {
+			result.add(single.element);
+		}
+		return result;
+	}
+	
+	// if all the keys are integral or floating point numbers, we compare primitives instead of objects
+	private static Comparator<Keyed> getComparator(List<Keyed> keyed, boolean descending) {
+		boolean integral = true, numeric = true;
+		for (Keyed single : keyed) {
+			if (single.key != null) {
+				integral &= isIntegral(single.key);
+				numeric &= isIntegral(single.key) || isFloating(single.key);
+			}
+		}
+		KeyComparator comparator = new KeyComparator(descending);
+		comparator.mode = integral ? 1 : numeric ? 2 : 0;
+		return comparator;
+	}
+	
+	// numbers of different types and big decimals with a different scale must end up in the same bucket
+	private static Object hashKey(Object key) {
+		if (isIntegral(key)) {
+			return ((Number) key).longValue();
+		}
+		else if (key instanceof BigInteger) {
+			return new BigDecimal((BigInteger) key).stripTrailingZeros();
+		}
+		else if (key instanceof BigDecimal) {
+			return ((BigDecimal) key).stripTrailingZeros();
+		}
+		return key;
+	}
+	
+	/**
+	 * An element with its key, the key is only calculated once
+	 */
+	private static class Keyed {
+		private Object element, key;
+		private long longKey;
+		private double doubleKey;
+		private int index;
+		
+		public Keyed(Object element, int index) {
+			this.element = element;
+			this.index = index;
+		}
+		
+		public void setKey(Object key) {
+			this.key = key;
+			if (isIntegral(key)) {
+				longKey = ((Number) key).longValue();
+			}
+			if (isIntegral(key) || isFloating(key)) {
+				doubleKey = ((Number) key).doubleValue();
+			}
+		}
+	}
+	
+	/**
+	 * Orders on the key, elements without a key come last and equal keys keep their original order
+	 */
+	private static class KeyComparator implements Comparator<Keyed> {
+		private boolean descending;
+		// 0 = objects, 1 = longs, 2 = doubles
+		private int mode;
+		
+		public KeyComparator(boolean descending) {
+			this.descending = descending;
+		}
+		
+		@Override
+		public int compare(Keyed left, Keyed right) {
+			int result;
+			if (left.key == null || right.key == null) {
+				result = left.key == right.key ? 0 : left.key == null ? 1 : -1;
+			}
+			else {
+				switch (mode) {
+					case 1: result = Long.compare(left.longKey, right.longKey); break;
+					case 2: result = Double.compare(left.doubleKey, right.doubleKey); break;
+					default: result = Methods.compare(left.key, right.key);
+				}
+				if (descending) {
+					result = -result;
+				}
+			}
+			return result == 0 ? Integer.compare(left.index, right.index) : result;
+		}
+	}
+	
+	static Object resolve(Object element) throws EvaluationException {
+		if (element instanceof Callable) {
+			try {
+				return ((Callable<?>) element).call();
+			}
+			catch (EvaluationException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new EvaluationException(e);
+			}
+		}
+		return element;
+	}
+	
+	/**
+	 * Compares numbers of different types by their value, other values must be comparable with one another
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compare(Object left, Object right) {
+		if (left instanceof Number && right instanceof Number && !left.getClass().equals(right.getClass())) {
+			if (isIntegral(left) && isIntegral(right)) {
+				return Long.compare(((Number) left).longValue(), ((Number) right).longValue());
+			}
+			else if ((isIntegral(left) || isFloating(left)) && (isIntegral(right) || isFloating(right))) {
+				return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+			}
+			return toBigDecimal((Number) left).compareTo(toBigDecimal((Number) right));
+		}
+		else if (left instanceof java.util.Date && right instanceof java.util.Date) {
+			return Long.compare(((java.util.Date) left).getTime(), ((java.util.Date) right).getTime());
+		}
+		else if (left instanceof Comparable && right != null && (left.getClass().isInstance(right) || right.getClass().isInstance(left))) {
+			return ((Comparable) left).compareTo(right);
+		}
+		throw new IllegalArgumentException("Can not compare " + left + " with " + right);
+	}
+	
+	private static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+	
+	private static boolean isFloating(Object value) {
+		return value instanceof Double || value instanceof Float;
+	}
+	
+	private static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		}
+		else if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		}
+		else if (isIntegral(number)) {
+			return BigDecimal.valueOf(number.longValue());
+		}
+		return new BigDecimal(number.toString());
+	}
+	
+	/**
+	 * Sums in a long as long as possible and only switches to a double or a big decimal when a value requires it
+	 */
+	private static class Accumulator implements ResultVisitor {
+		private long longSum;
+		private double doubleSum;
+		private BigDecimal decimalSum;
+		private boolean floating;
+		private long count;
+		
+		@Override
+		public boolean visit(Object element) throws EvaluationException {
+			element = resolve(element);
+			if (element == null) {
+				return true;
+			}
+			else if (!(element instanceof Number)) {
+				Object converted = ConverterFactory.getInstance().getConverter().convert(element, BigDecimal.class);
+				if (converted == null) {
+					throw new IllegalArgumentException("Can not aggregate non-numeric value: " + element);
+				}
+				element = converted;
+			}
+			if (isIntegral(element)) {
+				long value = ((Number) element).longValue();
+				long result = longSum + value;
+				// on overflow both operands have the same sign and the result has the other
+				if (((longSum ^ result) & (value ^ result)) < 0) {
+					add(BigDecimal.valueOf(longSum));
+					longSum = value;
+				}
+				else {
+					longSum = result;
+				}
+			}
+			else if (isFloating(element)) {
+				doubleSum += ((Number) element).doubleValue();
+				floating = true;
+			}
+			else {
+				add(toBigDecimal((Number) element));
+			}
+			count++;
+			return true;
+		}
+		
+		private void add(BigDecimal value) {
+			decimalSum = decimalSum == null ? value : decimalSum.add(value);
+		}
+		
+		public Number getSum() {
+			if (decimalSum != null) {
+				BigDecimal sum = decimalSum.add(BigDecimal.valueOf(longSum));
+				return floating ? sum.add(BigDecimal.valueOf(doubleSum)) : sum;
+			}
+			else if (floating) {
+				return doubleSum + longSum;
+			}
+			return longSum;
+		}
+		
+		public Number getAverage() {
+			if (count == 0) {
+				return null;
+			}
+			Number sum = getSum();
+			if (sum instanceof BigDecimal) {
+				return ((BigDecimal) sum).divide(BigDecimal.valueOf(count), MathContext.DECIMAL128);
+			}
+			return sum.doubleValue() / count;
+		}
+	}
+	
+	/**
+	 * Keeps the smallest (direction -1) or largest (direction 1) value that is not null
+	 */
+	private static class Extreme implements ResultVisitor {
+		private int direction;
+		private Object value;
+		
+		public Extreme(int direction) {
+			this.direction = direction;
+		}
+		
+		@Override
+		public boolean visit(Object element) throws EvaluationException {
+			element = resolve(element);
+			if (element != null && (value == null || compare(element, value) * direction > 0)) {
+				value = element;
+			}
+			return true;
+		}
+	}
 }
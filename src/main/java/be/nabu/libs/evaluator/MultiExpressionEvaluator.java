@@ -0,0 +1,175 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.ContextAccessor;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.impl.VariableOperation;
+
+/**
+ * Evaluates a set of operations against the same context, for example:
+ * 
+ * order/customer/name
+ * order/customer/address/city
+ * 
+ * Simple variable paths are merged into a tree so shared prefixes like "order/customer" are only resolved once per context.
+ * Anything that is not a simple path (indexes, filters, parent lookups,...) is evaluated as usual.
+ * If a shared prefix resolves to a list, the paths below it are evaluated as usual as well because they need to be concatenated over the items.
+ */
+public class MultiExpressionEvaluator<T> {
+
+	private List<Operation<T>> operations;
+	// the operations that are not part of a path tree
+	private List<Integer> others = new ArrayList<Integer>();
+	// a path tree per accessor
+	private Map<ContextAccessor<T>, PathNode> roots = new IdentityHashMap<ContextAccessor<T>, PathNode>();
+	
+	@SuppressWarnings("unchecked")
+	public MultiExpressionEvaluator(Operation<T>...operations) {
+		this(Arrays.asList(operations));
+	}
+	
+	public MultiExpressionEvaluator(List<Operation<T>> operations) {
+		this.operations = new ArrayList<Operation<T>>(operations);
+		for (int i = 0; i < this.operations.size(); i++) {
+			Operation<T> operation = this.operations.get(i);
+			if (isSimplePath(operation)) {
+				VariableOperation<T> variable = (VariableOperation<T>) operation;
+				PathNode node = roots.get(variable.getAccessor());
+				if (node == null) {
+					node = new PathNode(null);
+					roots.put(variable.getAccessor(), node);
+				}
+				for (QueryPart part : variable.getParts()) {
+					String path = part.getContent().toString();
+					if (path.startsWith("/")) {
+						path = path.substring(1);
+					}
+					PathNode child = node.children.get(path);
+					if (child == null) {
+						child = new PathNode(path);
+						node.children.put(path, child);
+					}
+					node = child;
+				}
+				node.operations.add(i);
+			}
+			else {
+				others.add(i);
+			}
+		}
+	}
+	
+	/**
+	 * The results are in the same order as the operations
+	 */
+	public List<Object> evaluate(T context) throws EvaluationException {
+		Object [] results = new Object[operations.size()];
+		// leave it to the accessors to decide what a null context means
+		if (context == null) {
+			for (int i = 0; i < operations.size(); i++) {
+				results[i] = operations.get(i).evaluate(context);
+			}
+			return Arrays.asList(results);
+		}
+		for (Map.Entry<ContextAccessor<T>, PathNode> entry : roots.entrySet()) {
+			for (PathNode child : entry.getValue().children.values()) {
+				evaluate(entry.getKey(), child, context, context, results);
+			}
+		}
+		for (Integer index : others) {
+			results[index] = operations.get(index).evaluate(context);
+		}
+		return Arrays.asList(results);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void evaluate(ContextAccessor<T> accessor, PathNode node, T root, Object context, Object [] results) throws EvaluationException {
+		Object value = context == null ? null : accessor.get((T) context, node.path);
+		for (Integer index : node.operations) {
+			results[index] = value;
+		}
+		if (!node.children.isEmpty()) {
+			// lists have to be iterated, leave it to the operations themselves
+			if (value instanceof Collection || value instanceof Object[] || VariableOperation.isCollectionIterable(value)) {
+				for (PathNode child : node.children.values()) {
+					evaluateAll(child, root, results);
+				}
+			}
+			else {
+				for (PathNode child : node.children.values()) {
+					evaluate(accessor, child, root, value, results);
+				}
+			}
+		}
+	}
+	
+	private void evaluateAll(PathNode node, T root, Object [] results) throws EvaluationException {
+		for (Integer index : node.operations) {
+			results[index] = operations.get(index).evaluate(root);
+		}
+		for (PathNode child : node.children.values()) {
+			evaluateAll(child, root, results);
+		}
+	}
+	
+	// only plain paths that are resolved from the current context without any fallback
+	private boolean isSimplePath(Operation<T> operation) {
+		if (!VariableOperation.class.equals(operation.getClass())) {
+			return false;
+		}
+		VariableOperation<T> variable = (VariableOperation<T>) operation;
+		if (variable.isAllowParentLookup() || variable.isAllowRootLookup() || variable.getParts().isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < variable.getParts().size(); i++) {
+			QueryPart part = variable.getParts().get(i);
+			if (part.getType() != Type.VARIABLE || !(part.getContent() instanceof String)) {
+				return false;
+			}
+			String path = (String) part.getContent();
+			if ((i == 0 && path.startsWith("/")) || path.equals(".") || path.equals("..") || path.equals("$this") || path.equals("/$this")) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public List<Operation<T>> getOperations() {
+		return operations;
+	}
+
+	private static class PathNode {
+		private String path;
+		private Map<String, PathNode> children = new LinkedHashMap<String, PathNode>();
+		private List<Integer> operations = new ArrayList<Integer>();
+		
+		public PathNode(String path) {
+			this.path = path;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.base.BaseOperation;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+import be.nabu.libs.evaluator.impl.MethodOperation;
+import be.nabu.libs.evaluator.impl.NativeOperation;
+import be.nabu.libs.evaluator.impl.VariableOperation;
+
+/**
+ * Different expressions often contain the same subexpressions, for example "order/customer/status == 'ACTIVE'".
+ * The interner makes sure structurally equal subtrees are only kept in memory once, turning the operation trees into a shared graph.
+ *
+ * Interning is done bottom up: once all the children of an operation are interned, we only need to compare the operation itself and the identity of its children.
+ * Child operations are replaced in place so this must be done before the operation is shared with other threads.
+ *
+ * Only operations that have no state tied to their position in the tree can be shared, by default these are the standard classic, variable, method and native operations.
+ * The operations are compared by class and not by configuration so you should use a separate interner for each operation provider.
+ */
+public class OperationInterner<T> {
+	
+	private ConcurrentHashMap<Key, Operation<T>> operations = new ConcurrentHashMap<Key, Operation<T>>();
+	private Set<Class<?>> shareable = new HashSet<Class<?>>();
+	
+	public OperationInterner() {
+		shareable.add(ClassicOperation.class);
+		shareable.add(VariableOperation.class);
+		shareable.add(MethodOperation.class);
+		shareable.add(NativeOperation.class);
+	}
+	
+	/**
+	 * Returns the shared version of the operation, if the operation itself can not be shared, its children still can
+	 */
+	public Operation<T> intern(Operation<T> operation) {
+		Operation<T> interned = internShareable(operation);
+		return interned == null ? operation : interned;
+	}
+	
+	// returns null if the operation can not be shared
+	@SuppressWarnings("unchecked")
+	private Operation<T> internShareable(Operation<T> operation) {
+		boolean isShareable = operation instanceof BaseOperation && shareable.contains(operation.getClass());
+		List<QueryPart> parts = operation.getParts();
+		for (int i = 0; i < parts.size(); i++) {
+			QueryPart part = parts.get(i);
+			if (part.getContent() instanceof Operation) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				Operation<T> interned = internShareable(child);
+				if (interned == null) {
+					isShareable = false;
+				}
+				else if (interned != child) {
+					if (operation instanceof BaseOperation) {
+						parts.set(i, new QueryPart(part.getToken(), part.getType(), interned));
+					}
+					else {
+						isShareable = false;
+					}
+				}
+			}
+		}
+		if (!isShareable) {
+			return null;
+		}
+		Operation<T> existing = operations.putIfAbsent(new Key(operation), operation);
+		return existing == null ? operation : existing;
+	}
+	
+	/**
+	 * Operations of this exact class can be shared, make sure it does not keep any state that depends on where it is used
+	 */
+	public void addShareable(Class<?> clazz) {
+		shareable.add(clazz);
+	}
+	
+	public int size() {
+		return operations.size();
+	}
+	
+	public void clear() {
+		operations.clear();
+	}
+	
+	/**
+	 * The children are already interned so they can be compared by identity
+	 */
+	private static class Key {
+		private Operation<?> operation;
+		private int hash;
+		
+		public Key(Operation<?> operation) {
+			this.operation = operation;
+			int hash = operation.getClass().hashCode();
+			for (QueryPart part : operation.getParts()) {
+				hash = 31 * hash + part.getType().hashCode();
+				if (part.getContent() instanceof Operation) {
+					hash = 31 * hash + System.identityHashCode(part.getContent());
+				}
+				else if (part.getContent() != null) {
+					hash = 31 * hash + part.getContent().hashCode();
+				}
+			}
+			this.hash = hash;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Operation<?> other = ((Key) object).operation;
+			if (hash != ((Key) object).hash || !operation.getClass().equals(other.getClass()) || operation.getParts().size() != other.getParts().size()) {
+				return false;
+			}
+			for (int i = 0; i < operation.getParts().size(); i++) {
+				QueryPart part = operation.getParts().get(i);
+				QueryPart otherPart = other.getParts().get(i);
+				if (part.getType() != otherPart.getType()) {
+					return false;
+				}
+				else if (part.getContent() instanceof Operation) {
+					if (part.getContent() != otherPart.getContent()) {
+						return false;
+					}
+				}
+				else if (!EvaluationUtils.isSameLiteral(part.getContent(), otherPart.getContent())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.api.EvaluationListener;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.impl.CachedOperation;
+import be.nabu.libs.evaluator.impl.ScopedOperation;
+
+/**
+ * Evaluates an operation and keeps track of where the time went, for each operation in the tree you get:
+ * 
+ * - count: how many times it was evaluated (e.g. a filter predicate is evaluated once per item)
+ * - total: the time spent in the operation including its children
+ * - self: the time spent in the operation itself, for variables this is mostly the accessor lookups, for methods the actual call and the argument conversion
+ * - items: the amount of items that were run through filters
+ * 
+ * Only the evaluations on the calling thread are recorded. Native operations are not instrumented, their cost is part of the parent.
+ * The listener is only registered for the duration of the profiling, so this has no impact on other evaluations once it is done.
+ */
+public class OperationProfiler {
+	
+	public static <T> Profile profile(Operation<T> operation, T context) throws EvaluationException {
+		ProfileNode root = new ProfileNode(operation);
+		Map<Operation<?>, ProfileNode> nodes = new IdentityHashMap<Operation<?>, ProfileNode>();
+		register(root, nodes);
+		ProfilingListener listener = new ProfilingListener(nodes);
+		EvaluationListenerFactory.getInstance().addListener(listener);
+		try {
+			return new Profile(operation.evaluate(context), root);
+		}
+		finally {
+			EvaluationListenerFactory.getInstance().removeListener(listener);
+		}
+	}
+	
+	private static void register(ProfileNode node, Map<Operation<?>, ProfileNode> nodes) {
+		// a shared operation is reported on its first occurrence
+		if (!nodes.containsKey(node.operation)) {
+			nodes.put(node.operation, node);
+		}
+		// wrappers evaluate an operation that is not part of the tree itself
+		if (node.operation instanceof CachedOperation && !nodes.containsKey(((CachedOperation<?>) node.operation).getOperation())) {
+			nodes.put(((CachedOperation<?>) node.operation).getOperation(), node);
+		}
+		else if (node.operation instanceof ScopedOperation && !nodes.containsKey(((ScopedOperation<?>) node.operation).getOperation())) {
+			nodes.put(((ScopedOperation<?>) node.operation).getOperation(), node);
+		}
+		for (QueryPart part : node.operation.getParts()) {
+			if (part.getType() == QueryPart.Type.OPERATION && part.getContent() instanceof Operation) {
+				ProfileNode child = new ProfileNode((Operation<?>) part.getContent());
+				node.children.add(child);
+				register(child, nodes);
+			}
+		}
+	}
+	
+	private static class ProfilingListener implements EvaluationListener {
+		private Thread thread = Thread.currentThread();
+		private Map<Operation<?>, ProfileNode> nodes;
+		
+		public ProfilingListener(Map<Operation<?>, ProfileNode> nodes) {
+			this.nodes = nodes;
+		}
+		@Override
+		public void evaluated(Operation<?> operation, long duration, Object result, Exception exception) {
+			if (Thread.currentThread() == thread) {
+				ProfileNode node = nodes.get(operation);
+				if (node != null) {
+					node.count++;
+					node.total += duration;
+					if (exception != null) {
+						node.errors++;
+					}
+				}
+			}
+		}
+		@Override
+		public void iterated(Operation<?> operation, int items) {
+			if (Thread.currentThread() == thread) {
+				ProfileNode node = nodes.get(operation);
+				if (node != null) {
+					node.items += items;
+				}
+			}
+		}
+	}
+	
+	public static class Profile {
+		private Object result;
+		private ProfileNode root;
+		
+		Profile(Object result, ProfileNode root) {
+			this.result = result;
+			this.root = root;
+		}
+		public Object getResult() {
+			return result;
+		}
+		public ProfileNode getRoot() {
+			return root;
+		}
+		public String toTreeString() {
+			return root.toTreeString();
+		}
+		@Override
+		public String toString() {
+			return toTreeString();
+		}
+	}
+	
+	public static class ProfileNode {
+		private Operation<?> operation;
+		private List<ProfileNode> children = new ArrayList<ProfileNode>();
+		private long count, errors, total, items;
+		
+		ProfileNode(Operation<?> operation) {
+			this.operation = operation;
+		}
+		public Operation<?> getOperation() {
+			return operation;
+		}
+		public List<ProfileNode> getChildren() {
+			return children;
+		}
+		public long getCount() {
+			return count;
+		}
+		public long getErrors() {
+			return errors;
+		}
+		// the total time in nanoseconds
+		public long getTotal() {
+			return total;
+		}
+		// the total time minus the time spent in the child operations
+		public long getSelf() {
+			long self = total;
+			for (ProfileNode child : children) {
+				self -= child.total;
+			}
+			return Math.max(0, self);
+		}
+		public long getItems() {
+			return items;
+		}
+		
+		public String toTreeString() {
+			StringBuilder builder = new StringBuilder();
+			toTreeString(builder, 0);
+			return builder.toString();
+		}
+		
+		private void toTreeString(StringBuilder builder, int depth) {
+			builder.append(getTabs(depth)).append(operation.getType()).append("[").append(operation.getClass().getSimpleName()).append(": ").append(operation.toString().replaceAll("[\\s]*\n[\\s]*", " ")).append("]");
+			builder.append(" {count=").append(count);
+			if (errors > 0) {
+				builder.append(", errors=").append(errors);
+			}
+			builder.append(", total=").append(format(total)).append(", self=").append(format(getSelf()));
+			if (items > 0) {
+				builder.append(", items=").append(items);
+			}
+			builder.append("}");
+			for (ProfileNode child : children) {
+				builder.append("\n").append(getTabs(depth)).append("(\n");
+				child.toTreeString(builder, depth + 1);
+				builder.append("\n").append(getTabs(depth)).append(")");
+			}
+		}
+		
+		private static String format(long nanos) {
+			return nanos >= 1000000 ? String.format("%.2fms", nanos / 1000000d) : String.format("%.2fµs", nanos / 1000d);
+		}
+		
+		private static String getTabs(int amount) {
+			StringBuilder tabs = new StringBuilder();
+			for (int i = 0; i < amount; i++) {
+				tabs.append("\t");
+			}
+			return tabs.toString();
+		}
+		
+		@Override
+		public String toString() {
+			return toTreeString();
+		}
+	}
+}
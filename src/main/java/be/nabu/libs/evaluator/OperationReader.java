@@ -0,0 +1,176 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.Reserved;
+
+/**
+ * Reads the bundles written by the OperationWriter, the operations are created through the provider and finished as if they were analyzed.
+ */
+public class OperationReader<T> {
+	
+	private OperationProvider<T> operationProvider;
+
+	public OperationReader(OperationProvider<T> operationProvider) {
+		this.operationProvider = operationProvider;
+	}
+	
+	/**
+	 * Maps the file in memory, the operations only keep the strings and numbers they need so the buffer is not referenced afterwards
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	public Map<String, Operation<T>> read(InputStream input) throws IOException, ParseException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte [] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) > 0) {
+			output.write(buffer, 0, read);
+		}
+		return read(ByteBuffer.wrap(output.toByteArray()));
+	}
+	
+	public Map<String, Operation<T>> read(ByteBuffer buffer) throws IOException, ParseException {
+		try {
+			if (buffer.getInt() != OperationWriter.MAGIC) {
+				throw new IOException("The data is not an operation bundle");
+			}
+			short version = buffer.getShort();
+			if (version > OperationWriter.VERSION) {
+				throw new IOException("Unsupported operation bundle version: " + version);
+			}
+			Type [] types = new Type[readLength(buffer.getShort(), buffer)];
+			for (int i = 0; i < types.length; i++) {
+				types[i] = getEnum(Type.class, readString(buffer));
+			}
+			OperationType [] operationTypes = new OperationType[readLength(buffer.getShort(), buffer)];
+			for (int i = 0; i < operationTypes.length; i++) {
+				operationTypes[i] = getEnum(OperationType.class, readString(buffer));
+			}
+			int amount = buffer.getInt();
+			Map<String, Operation<T>> operations = new LinkedHashMap<String, Operation<T>>();
+			for (int i = 0; i < amount; i++) {
+				String key = readString(buffer);
+				operations.put(key, readOperation(buffer, types, operationTypes));
+			}
+			return operations;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("The operation bundle is truncated", e);
+		}
+	}
+	
+	private Operation<T> readOperation(ByteBuffer buffer, Type [] types, OperationType [] operationTypes) throws IOException, ParseException {
+		Operation<T> operation = operationProvider.newOperation(get(operationTypes, buffer.get()));
+		int amount = buffer.getInt();
+		try {
+			for (int i = 0; i < amount; i++) {
+				Type type = get(types, buffer.getShort());
+				operation.add(new QueryPart(type, readContent(buffer, types, operationTypes)));
+			}
+			operation.finish();
+		}
+		catch (BufferUnderflowException e) {
+			throw e;
+		}
+		// the parts are valid on their own but do not make up a valid operation
+		catch (RuntimeException e) {
+			throw new IOException("The operation bundle is corrupt: invalid operation", e);
+		}
+		return operation;
+	}
+	
+	private Object readContent(ByteBuffer buffer, Type [] types, OperationType [] operationTypes) throws IOException, ParseException {
+		byte tag = buffer.get();
+		switch (tag) {
+			case OperationWriter.TAG_NULL: return null;
+			case OperationWriter.TAG_OPERATION: return readOperation(buffer, types, operationTypes);
+			case OperationWriter.TAG_STRING: return readString(buffer);
+			case OperationWriter.TAG_INTEGER: return buffer.getInt();
+			case OperationWriter.TAG_LONG: return buffer.getLong();
+			case OperationWriter.TAG_DOUBLE: return buffer.getDouble();
+			case OperationWriter.TAG_FLOAT: return buffer.getFloat();
+			case OperationWriter.TAG_BOOLEAN: return buffer.get() != 0;
+			case OperationWriter.TAG_BIG_INTEGER: return new BigInteger(readBytes(buffer));
+			case OperationWriter.TAG_BIG_DECIMAL: return new BigDecimal(new BigInteger(readBytes(buffer)), buffer.getInt());
+			case OperationWriter.TAG_UNDEFINED: return Reserved.UNDEFINED;
+			default:
+				throw new IOException("Unknown content tag: " + tag);
+		}
+	}
+	
+	private String readString(ByteBuffer buffer) throws IOException {
+		return new String(readBytes(buffer), OperationWriter.UTF8);
+	}
+	
+	private byte [] readBytes(ByteBuffer buffer) throws IOException {
+		byte [] bytes = new byte[readLength(buffer.getInt(), buffer)];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+	// every element takes at least one byte so a length can never exceed what is left in the buffer
+	private static int readLength(int length, ByteBuffer buffer) throws IOException {
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("The operation bundle is corrupt: invalid length " + length);
+		}
+		return length;
+	}
+	
+	private static <E> E get(E [] values, int index) throws IOException {
+		if (index < 0 || index >= values.length) {
+			throw new IOException("The operation bundle is corrupt: invalid index " + index);
+		}
+		return values[index];
+	}
+	
+	private static <E extends Enum<E>> E getEnum(Class<E> type, String name) throws IOException {
+		try {
+			return Enum.valueOf(type, name);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Unknown " + type.getSimpleName() + ": " + name);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.Reserved;
+import be.nabu.libs.evaluator.impl.ParameterOperation;
+
+/**
+ * Writes operations in a binary format that can be read back by the OperationReader without parsing or analyzing the expressions again.
+ * 
+ * The format is:
+ * - a header: the magic number, the version and the names of the query part and operation types (so reordering the enums does not break existing files)
+ * - the amount of operations in the bundle
+ * - for each operation its key (usually the expression) and the operation tree
+ * 
+ * An operation is written as its type, the amount of parts and for each part its type and its content.
+ * The content is tagged with its java type, only operations, strings, numbers, booleans, null and undefined are supported which covers everything the parser generates.
+ * The string tokens are not written, the operations you read back have no reference to the original source.
+ * Optimized operations (e.g. cached subexpressions) are written as the operation they wrap.
+ * Parameters only get a value from the prepared expression they belong to, operations that contain parameters or bound values can not be written.
+ */
+public class OperationWriter {
+	
+	public static final int MAGIC = 0x4E455652;
+	public static final short VERSION = 1;
+	
+	static final byte TAG_NULL = 0,
+		TAG_OPERATION = 1,
+		TAG_STRING = 2,
+		TAG_INTEGER = 3,
+		TAG_LONG = 4,
+		TAG_DOUBLE = 5,
+		TAG_FLOAT = 6,
+		TAG_BOOLEAN = 7,
+		TAG_BIG_INTEGER = 8,
+		TAG_BIG_DECIMAL = 9,
+		TAG_UNDEFINED = 10;
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public void write(Operation<?> operation, OutputStream output) throws IOException {
+		write(Collections.<String, Operation<?>>singletonMap(operation.toString(), operation), output);
+	}
+	
+	public void write(Map<String, ? extends Operation<?>> operations, OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeShort(Type.values().length);
+		for (Type type : Type.values()) {
+			writeString(data, type.name());
+		}
+		data.writeShort(OperationType.values().length);
+		for (OperationType type : OperationType.values()) {
+			writeString(data, type.name());
+		}
+		data.writeInt(operations.size());
+		for (Map.Entry<String, ? extends Operation<?>> entry : operations.entrySet()) {
+			writeString(data, entry.getKey());
+			writeOperation(data, entry.getValue());
+		}
+		data.flush();
+	}
+	
+	private void writeOperation(DataOutputStream data, Operation<?> operation) throws IOException {
+		if (operation instanceof ParameterOperation || operation instanceof PreparedExpression.BoundOperation) {
+			throw new IOException("Can not serialize a parameterized operation: " + operation);
+		}
+		data.writeByte(operation.getType().ordinal());
+		data.writeInt(operation.getParts().size());
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.PARAMETER) {
+				throw new IOException("Can not serialize a parameterized operation: " + operation);
+			}
+			data.writeShort(part.getType().ordinal());
+			writeContent(data, part.getContent());
+		}
+	}
+	
+	private void writeContent(DataOutputStream data, Object content) throws IOException {
+		if (content == null) {
+			data.writeByte(TAG_NULL);
+		}
+		else if (content instanceof Operation) {
+			data.writeByte(TAG_OPERATION);
+			writeOperation(data, (Operation<?>) content);
+		}
+		else if (content instanceof String) {
+			data.writeByte(TAG_STRING);
+			writeString(data, (String) content);
+		}
+		else if (content instanceof Integer) {
+			data.writeByte(TAG_INTEGER);
+			data.writeInt((Integer) content);
+		}
+		else if (content instanceof Long) {
+			data.writeByte(TAG_LONG);
+			data.writeLong((Long) content);
+		}
+		else if (content instanceof Double) {
+			data.writeByte(TAG_DOUBLE);
+			data.writeDouble((Double) content);
+		}
+		else if (content instanceof Float) {
+			data.writeByte(TAG_FLOAT);
+			data.writeFloat((Float) content);
+		}
+		else if (content instanceof Boolean) {
+			data.writeByte(TAG_BOOLEAN);
+			data.writeBoolean((Boolean) content);
+		}
+		else if (content instanceof BigInteger) {
+			data.writeByte(TAG_BIG_INTEGER);
+			writeBytes(data, ((BigInteger) content).toByteArray());
+		}
+		else if (content instanceof BigDecimal) {
+			data.writeByte(TAG_BIG_DECIMAL);
+			writeBytes(data, ((BigDecimal) content).unscaledValue().toByteArray());
+			data.writeInt(((BigDecimal) content).scale());
+		}
+		else if (content == Reserved.UNDEFINED) {
+			data.writeByte(TAG_UNDEFINED);
+		}
+		else {
+			throw new IOException("Can not serialize content of type: " + content.getClass().getName());
+		}
+	}
+	
+	private void writeString(DataOutputStream data, String string) throws IOException {
+		writeBytes(data, string.getBytes(UTF8));
+	}
+	
+	private void writeBytes(DataOutputStream data, byte [] bytes) throws IOException {
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+}
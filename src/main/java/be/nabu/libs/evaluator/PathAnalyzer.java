@@ -23,6 +23,7 @@ import java.util.List;
 
 import be.nabu.libs.evaluator.QueryPart.Type;
 import be.nabu.libs.evaluator.api.Analyzer;
+import be.nabu.libs.evaluator.api.EvaluationListener;
 import be.nabu.libs.evaluator.api.Operation;
 import be.nabu.libs.evaluator.api.OperationProvider;
 import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
@@ -38,12 +39,49 @@ public class PathAnalyzer<T> implements Analyzer<T> {
 
 	private OperationProvider<T> operationProvider;
 	
+	/**
+	 * Parameters only get a value in a prepared expression, anywhere else they are rejected
+	 */
+	private boolean allowParameters;
+	
 	public PathAnalyzer(OperationProvider<T> operationProvider) {
 		this.operationProvider = operationProvider;
 	}
 	
+	public OperationProvider<T> getOperationProvider() {
+		return operationProvider;
+	}
+	
+	public boolean isAllowParameters() {
+		return allowParameters;
+	}
+	
+	public void setAllowParameters(boolean allowParameters) {
+		this.allowParameters = allowParameters;
+	}
+	
 	public Operation<T> analyze(List<QueryPart> parts) throws ParseException {
-		return analyze(Token.fromList(parts));
+		if (!allowParameters) {
+			for (QueryPart part : parts) {
+				if (part.getType() == Type.PARAMETER) {
+					throw new ParseException("Parameters are only allowed in prepared expressions: " + part, part.getToken() == null ? 0 : part.getToken().getStart());
+				}
+			}
+		}
+		EvaluationListener listener = EvaluationListenerFactory.getInstance().getListener();
+		if (listener == null) {
+			return analyze(Token.fromList(parts));
+		}
+		long started = System.nanoTime();
+		try {
+			Operation<T> operation = analyze(Token.fromList(parts));
+			listener.analyzed(parts, operation, System.nanoTime() - started, null);
+			return operation;
+		}
+		catch (ParseException e) {
+			listener.analyzed(parts, null, System.nanoTime() - started, e);
+			throw e;
+		}
 	}
 		
 	/**
@@ -54,6 +92,7 @@ public class PathAnalyzer<T> implements Analyzer<T> {
 	 * @return The new position
 	 * @throws ParseException 
 	 */
+	@SuppressWarnings("unchecked")
 	private Operation<T> analyze(Token<QueryPart> start) throws ParseException {
 		// keeps track of the last operation, this represents the "root" operation for this scope
 		Operation<T> last = null;
@@ -271,6 +310,11 @@ public class PathAnalyzer<T> implements Analyzer<T> {
 					last = variableOperation;
 				}
 			}
+			// an operation that was analyzed up front (e.g. a scope) behaves exactly like a scope that is analyzed here
+			else if (token.getToken().getType() == Type.OPERATION) {
+				last = (Operation<T>) token.getToken().getContent();
+				token = token.getNext();
+			}
 			else
 				token = token.getNext();
 			
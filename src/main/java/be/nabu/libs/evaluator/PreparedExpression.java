@@ -0,0 +1,209 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+import be.nabu.libs.evaluator.impl.EvaluationScope;
+import be.nabu.libs.evaluator.impl.ParameterOperation;
+
+/**
+ * An expression with parameters that is parsed and analyzed once and can be evaluated with different values for the parameters, for example:
+ * 
+ * id == ? && type == ?type
+ * 
+ * A "?" is a positional parameter, each occurrence is a separate parameter. A "?name" is a named parameter, all occurrences of the same name share the value.
+ * The parameters are ordered by their first appearance in the expression, this is also the order in which you pass in the values positionally.
+ * 
+ * The values are bound per evaluation on the current thread, so a prepared expression can be evaluated concurrently with different values.
+ */
+public class PreparedExpression<T> {
+
+	private Operation<T> operation;
+	private OperationProvider<T> operationProvider;
+	// the name of each parameter, null for positional parameters
+	private List<String> parameters = new ArrayList<String>();
+	private Map<QueryPart, Integer> indexes = new IdentityHashMap<QueryPart, Integer>();
+	
+	public PreparedExpression(String expression, OperationProvider<T> operationProvider) throws ParseException {
+		this(QueryParser.getInstance().parse(expression), operationProvider);
+	}
+	
+	public PreparedExpression(List<QueryPart> parts, OperationProvider<T> operationProvider) throws ParseException {
+		this.operationProvider = operationProvider;
+		for (QueryPart part : parts) {
+			if (part.getType() == Type.PARAMETER) {
+				String name = (String) part.getContent();
+				int index = name.isEmpty() ? -1 : parameters.indexOf(name);
+				if (index < 0) {
+					index = parameters.size();
+					parameters.add(name.isEmpty() ? null : name);
+				}
+				indexes.put(part, index);
+			}
+		}
+		PathAnalyzer<T> analyzer = new PathAnalyzer<T>(operationProvider);
+		analyzer.setAllowParameters(true);
+		this.operation = replaceParameters(analyzer.analyze(parts));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> replaceParameters(Operation<T> operation) throws ParseException {
+		if (isParameter(operation)) {
+			return newParameter(operation.getParts().get(0));
+		}
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.PARAMETER) {
+				parts.add(new QueryPart(part.getToken(), Type.OPERATION, newParameter(part)));
+				changed = true;
+			}
+			else if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				Operation<T> replacement = replaceParameters(child);
+				if (replacement != child) {
+					parts.add(new QueryPart(part.getToken(), Type.OPERATION, replacement));
+					changed = true;
+				}
+				else {
+					parts.add(part);
+				}
+			}
+			else {
+				parts.add(part);
+			}
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	private boolean isParameter(Operation<T> operation) {
+		return operation.getType() == OperationType.NATIVE && operation.getParts().size() == 1 && operation.getParts().get(0).getType() == Type.PARAMETER;
+	}
+	
+	private ParameterOperation<T> newParameter(QueryPart part) {
+		return new ParameterOperation<T>(this, indexes.get(part), part);
+	}
+	
+	/**
+	 * Evaluates the expression with the given values for the parameters in order of appearance
+	 */
+	public Object evaluate(T context, Object...values) throws EvaluationException {
+		if (values.length != parameters.size()) {
+			throw new EvaluationException("Expecting " + parameters.size() + " parameters for '" + operation + "', received " + values.length);
+		}
+		return evaluate(context, values, null);
+	}
+	
+	/**
+	 * Evaluates the expression with the values for the named parameters
+	 */
+	public Object evaluate(T context, Map<String, ?> values) throws EvaluationException {
+		return evaluate(context, null, values);
+	}
+	
+	private Object evaluate(T context, Object [] values, Map<String, ?> named) throws EvaluationException {
+		EvaluationScope scope = EvaluationScope.open(this, parameters.size());
+		try {
+			for (int i = 0; i < parameters.size(); i++) {
+				if (values != null) {
+					scope.set(i, values[i]);
+				}
+				else if (parameters.get(i) != null && named.containsKey(parameters.get(i))) {
+					scope.set(i, named.get(parameters.get(i)));
+				}
+			}
+			return operation.evaluate(context);
+		}
+		finally {
+			scope.close();
+		}
+	}
+	
+	/**
+	 * Creates an operation that evaluates this expression with the given values, it can be used wherever a regular operation is expected
+	 */
+	public Operation<T> bind(Object...values) {
+		if (values.length != parameters.size()) {
+			throw new IllegalArgumentException("Expecting " + parameters.size() + " parameters for '" + operation + "', received " + values.length);
+		}
+		return new BoundOperation(values);
+	}
+	
+	public List<String> getParameters() {
+		return Collections.unmodifiableList(parameters);
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+	
+	/**
+	 * Shares the structurally equal subtrees of the operation with other operations, this must be done before the expression is used by other threads
+	 */
+	public void intern(OperationInterner<T> interner) {
+		operation = interner.intern(operation);
+	}
+	
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+	
+	// not private so it can be recognized when cloning
+	class BoundOperation extends BaseOperation<T> {
+		private Object [] values;
+		
+		public BoundOperation(Object [] values) {
+			this.values = values;
+			for (QueryPart part : operation.getParts()) {
+				super.add(part);
+			}
+		}
+		@Override
+		public void add(QueryPart part) {
+			throw new UnsupportedOperationException("A bound operation can not be modified");
+		}
+		@Override
+		public void finish() throws ParseException {
+			// do nothing
+		}
+		@Override
+		public Object evaluate(T context) throws EvaluationException {
+			return PreparedExpression.this.evaluate(context, values, null);
+		}
+		@Override
+		public OperationType getType() {
+			return operation.getType();
+		}
+		@Override
+		public String toString() {
+			return operation.toString();
+		}
+	}
+}
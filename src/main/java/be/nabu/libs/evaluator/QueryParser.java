@@ -19,6 +19,7 @@ package be.nabu.libs.evaluator;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.CharBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,10 +27,12 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.EvaluationListener;
 import be.nabu.libs.evaluator.base.Reserved;
 
 /**
@@ -66,8 +69,9 @@ public class QueryParser {
 	 * This may not be true if you have slightly different parser settings but should hold for most usecases
 	 * If this becomes a problem, add a "context" or something
 	 * The speedup of not having to parse every time is considerable though
+	 * Parsing is done outside of any lock, if two threads parse the same query at the same time, the first result wins
 	 */
-	private Map<String, List<QueryPart>> parsed = new HashMap<String, List<QueryPart>>();
+	private ConcurrentHashMap<String, List<QueryPart>> parsed = new ConcurrentHashMap<String, List<QueryPart>>();
 	
 	/**
 	 * Keeps track of the parts (in order!) and their respective regexes
@@ -85,6 +89,11 @@ public class QueryParser {
 	 */
 	private Map<Type, List<String>> post = new HashMap<Type, List<String>>();
 	
+	/**
+	 * The compiled version of the regexes, they are keyed by the regex itself because the parts can be updated at any time
+	 */
+	private Map<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+	
 	protected QueryParser() {
 		// TODO: need to update the regex so "\\" is a valid string with a \ in it
 		parts.put(Type.STRING, "((?:(?<!(?<!\\\\)\\\\)\".*?(?<!(?<!\\\\)\\\\)\")|(?:(?<!(?<!\\\\)\\\\)'.*?(?<!(?<!\\\\)\\\\)'))");
@@ -94,6 +103,8 @@ public class QueryParser {
 		parts.put(Type.BOOLEAN_FALSE, "\\bfalse\\b");
 		parts.put(Type.NULL, "\\bnull\\b");
 		parts.put(Type.UNDEFINED, "\\bundefined\\b");
+		// either a named parameter "?name" or a positional one "?"
+		parts.put(Type.PARAMETER, "\\?(?:[a-zA-Z_]\\w*|)");
 		// a method must be followed by an opening scope and must start and end with a \w
 		parts.put(Type.METHOD, "([$]+|\\b[a-zA-Z]+)[\\w.]*[\\w]*(?=[\\s]*\\()");
 		// each "part" of the variable can start with a "@" or a "$" where "@" is for attribute and "$" is for an internal variable
@@ -137,6 +148,7 @@ public class QueryParser {
 		parts.put(Type.COMPOSE, "°");
 		
 		post.put(Type.STRING, Arrays.asList("(?s)^(?:\"|')(.*)(?:\"|')"));
+		post.put(Type.PARAMETER, Arrays.asList("^\\?(.*)"));
 		// the lookahead for a scope opener is currently hardcoded!!!
 		identifier.put(Type.METHOD, "([$]+|\\b[a-zA-Z]+)[\\w.]*[\\w]*");
 	}
@@ -192,16 +204,59 @@ public class QueryParser {
 	private boolean lenient = false;
 		
 	public List<QueryPart> parse(String query) throws ParseException {
-		if (!parsed.containsKey(query)) {
-			synchronized(parsed) {
-				if (!parsed.containsKey(query)) {
-					List<QueryPart> tokens = interpret(tokenize(query), false);
-					validate(tokens);
-					parsed.put(query, tokens);
-				}
+		List<QueryPart> result = parsed.get(query);
+		if (result == null) {
+			result = parseUncached(query);
+			List<QueryPart> existing = parsed.putIfAbsent(query, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Only strings are cached, other char sequences are parsed every time as they might be mutable or too big to keep around
+	 * The tokens refer to the char sequence so it must not be changed afterwards
+	 */
+	public List<QueryPart> parse(CharSequence query) throws ParseException {
+		return query instanceof String ? parse((String) query) : parseUncached(query);
+	}
+	
+	public List<QueryPart> parse(char [] query, int offset, int length) throws ParseException {
+		return parse(CharBuffer.wrap(query, offset, length));
+	}
+	
+	/**
+	 * Parses the query without looking at or filling the cache
+	 */
+	public List<QueryPart> parseUncached(CharSequence query) throws ParseException {
+		EvaluationListener listener = EvaluationListenerFactory.getInstance().getListener();
+		long started = listener == null ? 0 : System.nanoTime();
+		List<QueryPart> tokens;
+		try {
+			tokens = interpret(tokenize(query), false);
+			validate(tokens);
+		}
+		catch (ParseException e) {
+			if (listener != null) {
+				listener.parsed(query.toString(), null, System.nanoTime() - started, e);
 			}
+			throw e;
 		}
-		return parsed.get(query);
+		if (listener != null) {
+			listener.parsed(query.toString(), tokens, System.nanoTime() - started, null);
+		}
+		return tokens;
+	}
+	
+	private Pattern getPattern(String regex) {
+		Pattern pattern = patterns.get(regex);
+		if (pattern == null) {
+			pattern = Pattern.compile(regex);
+			patterns.put(regex, pattern);
+		}
+		return pattern;
 	}
 	
 	/**
@@ -241,21 +296,20 @@ public class QueryParser {
 	 * Tokenizes the query based on the regex and enforces the lenient if necessary
 	 */
 	public List<StringToken> tokenize(String query) throws ParseException {
-		String regex = getRegex();
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(query);
+		return tokenize((CharSequence) query);
+	}
+	
+	public List<StringToken> tokenize(CharSequence query) throws ParseException {
+		Matcher matcher = getTokenPattern().matcher(query);
 		List<StringToken> parts = new ArrayList<StringToken>();
 		// keeps track of last parsed position, this is for "lenient" parsing
 		int last = -1;
 		while (matcher.find()) {
-			String preamble = null;
-			if (matcher.start() > last + 1) {
-				preamble = query.substring(last + 1, matcher.start());	
-			}
-			if (!lenient && preamble != null && preamble.trim().length() > 0) {
+			if (!lenient && matcher.start() > last + 1 && !isWhitespace(query, last + 1, matcher.start())) {
+				String preamble = query.subSequence(last + 1, matcher.start()).toString();
 				throw new ParseException("Invalid token detected in [" + (last + 1) + ", " + matcher.start() + "]: '" + preamble + "' of '" + query + "'", last + 1);
 			}
-			parts.add(new StringToken(matcher.group(), preamble, matcher.start(), matcher.end()));
+			parts.add(new StringToken(query, last + 1, matcher.start(), matcher.end()));
 			last = matcher.end() - 1;
 		}
 		if (parts.size() == 0) {
@@ -264,6 +318,33 @@ public class QueryParser {
 		return parts;
 	}
 	
+	/**
+	 * The compiled version of the full tokenization regex
+	 */
+	Pattern getTokenPattern() {
+		return getPattern(getRegex());
+	}
+	
+	// same definition as trim()
+	static boolean isWhitespace(CharSequence query, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (query.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if the token as a whole matches the regex without creating a separate string for it
+	 */
+	private boolean matches(StringToken token, String regex) {
+		if (token.getSource() == null) {
+			return getPattern(regex).matcher(token.getContent()).matches();
+		}
+		return getPattern(regex).matcher(token.getSource()).region(token.getStart(), token.getEnd()).matches();
+	}
+	
 	/**
 	 * The tokens are interpreted so the QueryPart can be made
 	 * @param tokens
@@ -273,18 +354,25 @@ public class QueryParser {
 	 * @throws ParseException 
 	 */
 	public List<QueryPart> interpret(List<StringToken> tokens, boolean lenient) throws ParseException {
-		List<QueryPart> result = new ArrayList<QueryPart>();
-		
-		for (int i = 0; i < tokens.size(); i++) {
-			String token = tokens.get(i).getContent();
+		return interpret(tokens, 0, tokens.size(), new ArrayList<QueryPart>(), lenient);
+	}
+	
+	/**
+	 * Interprets the tokens in the given range and adds them to the result, the result must contain the parts for the tokens that come before the range
+	 * This is necessary because interpretation depends on the surrounding tokens: for example a "-" in front of a number can be merged into the number
+	 */
+	public List<QueryPart> interpret(List<StringToken> tokens, int from, int to, List<QueryPart> result, boolean lenient) throws ParseException {
+		for (int i = from; i < to; i++) {
 			boolean identified = false;
 			for (Type type : parts.keySet()) {
 				// this is the one
-				if (token.matches("(?s)" + (identifier.containsKey(type) ? identifier.get(type) : parts.get(type)))) {
+				if (matches(tokens.get(i), "(?s)" + (identifier.containsKey(type) ? identifier.get(type) : parts.get(type)))) {
 					// hardcoded check for method: need scope opener as next!
-					if (type == Type.METHOD && (i == tokens.size() - 1 || !tokens.get(i + 1).getContent().matches(identifier.containsKey(Type.SCOPE_START) ? identifier.get(Type.SCOPE_START) : parts.get(Type.SCOPE_START))))
+					if (type == Type.METHOD && (i == tokens.size() - 1 || !matches(tokens.get(i + 1), identifier.containsKey(Type.SCOPE_START) ? identifier.get(Type.SCOPE_START) : parts.get(Type.SCOPE_START))))
 						continue;
 					identified = true;
+					// literals with a fixed value don't need the text, the others get a local copy of the region that is not kept in the token
+					String token = type == Type.BOOLEAN_FALSE || type == Type.BOOLEAN_TRUE || type == Type.NULL || type == Type.UNDEFINED ? null : tokens.get(i).getContent();
 					// post process if necessary
 					if (post.containsKey(type)) {
 						String quoteUsed = token.substring(0, 1);
@@ -322,20 +410,30 @@ public class QueryParser {
 						// the only thing that breaks is the string token inside the query token, it still contains the original content of the number, without the leading sign
 						// so writing it out based on the string tokens would get you "1" instead of the original "-1"
 						// to fix this we create a new token that encompasses both existing tokens
-						StringToken tokenToUse = bumped == null ? tokens.get(i) : new StringToken(
-							bumped.getToken().getContent() + (tokens.get(i).getPreamble() == null ? "" : tokens.get(i).getPreamble()) + tokens.get(i).getContent(), 
-							bumped.getToken().getPreamble(), bumped.getToken().getStart(), tokens.get(i).getEnd());
+						StringToken tokenToUse;
+						if (bumped == null) {
+							tokenToUse = tokens.get(i);
+						}
+						// if both refer to the same source, the new token is simply the region spanning both
+						else if (bumped.getToken().getSource() != null && bumped.getToken().getSource() == tokens.get(i).getSource()) {
+							tokenToUse = new StringToken(tokens.get(i).getSource(), bumped.getToken().getPreambleStart(), bumped.getToken().getStart(), tokens.get(i).getEnd());
+						}
+						else {
+							tokenToUse = new StringToken(
+								bumped.getToken().getContent() + (tokens.get(i).getPreamble() == null ? "" : tokens.get(i).getPreamble()) + tokens.get(i).getContent(), 
+								bumped.getToken().getPreamble(), bumped.getToken().getStart(), tokens.get(i).getEnd());
+						}
 						if (type == Type.NUMBER_INTEGER) {
 							if (token.endsWith("b")) {
 								result.add(new QueryPart(tokenToUse, type, new BigInteger(token.substring(0, token.length() - 1))));
 							}
 							else {
-								Long longValue = new Long(token);
+								Long longValue = Long.valueOf(token);
 								if (longValue > Integer.MAX_VALUE || longValue < Integer.MIN_VALUE) {
 									result.add(new QueryPart(tokenToUse, type, longValue));
 								}
 								else {
-									result.add(new QueryPart(tokenToUse, type, new Integer(longValue.intValue())));
+									result.add(new QueryPart(tokenToUse, type, Integer.valueOf(longValue.intValue())));
 								}
 							}
 						}
@@ -344,7 +442,7 @@ public class QueryParser {
 								result.add(new QueryPart(tokenToUse, type, new BigDecimal(token.substring(0, token.length() - 1))));	
 							}
 							else {
-								result.add(new QueryPart(tokenToUse, type, new Double(token)));
+								result.add(new QueryPart(tokenToUse, type, Double.valueOf(token)));
 							}
 						}
 					}
@@ -367,7 +465,7 @@ public class QueryParser {
 					result.add(new QueryPart(tokens.get(i), Type.UNKNOWN, tokens.get(i).getContent()));
 				}
 				else {
-					throw new ParseException("Unknown token: " + token, 0);
+					throw new ParseException("Unknown token: " + tokens.get(i).getContent(), 0);
 				}
 			}
 		}
@@ -42,6 +42,8 @@ public class QueryPart {
 		BOOLEAN_FALSE(true),
 		NULL(true),
 		UNDEFINED(true),
+		// a placeholder for a value that is bound at evaluation time, the content is the name (empty for positional parameters)
+		PARAMETER(true),
 		
 		// operators
 		NAMING(true, 0, true, true),
@@ -0,0 +1,341 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.evaluator.EvaluationUtils.StructuralKey;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+
+/**
+ * Indexes a large set of boolean rules so we only evaluate the rules that have a chance of matching.
+ * 
+ * Each rule is split along its top level "&&" and we look for conditions of the form:
+ * 
+ * - path == literal
+ * - path == literal1 || path == literal2 || ...
+ * - path > literal (and the other comparison operators)
+ * 
+ * The path must be on the left side so the literal is converted the same way the operation would do it.
+ * Each rule is indexed on one such condition (preferably an equality), conditions on the same path share the same index so the path is only resolved once per context.
+ * The candidate rules are then evaluated as usual, rules without an indexable condition are always candidates.
+ * 
+ * Because rules that are ruled out by the index are not evaluated at all, exceptions they might have thrown for a particular context are not reported.
+ */
+public class RuleIndex<T> {
+
+	private List<Operation<T>> rules;
+	private Map<StructuralKey, PathIndex> paths = new LinkedHashMap<StructuralKey, PathIndex>();
+	private BitSet alwaysCandidates = new BitSet();
+	
+	public RuleIndex(List<Operation<T>> rules) {
+		this.rules = new ArrayList<Operation<T>>(rules);
+		// operator overloading can change the outcome of any comparison
+		boolean indexable = ClassicOperation.getOperationExecutors().isEmpty();
+		for (int i = 0; i < this.rules.size(); i++) {
+			Condition condition = indexable ? getCondition(i, this.rules.get(i)) : null;
+			if (condition == null) {
+				alwaysCandidates.set(i);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the index of all the rules that evaluate to true
+	 */
+	public List<Integer> match(T context) throws EvaluationException {
+		List<Integer> matches = new ArrayList<Integer>();
+		BitSet candidates = getCandidates(context);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (Boolean.TRUE.equals(rules.get(i).evaluate(context))) {
+				matches.add(i);
+			}
+		}
+		return matches;
+	}
+	
+	/**
+	 * The rules that have to be evaluated for this context
+	 */
+	public BitSet getCandidates(T context) {
+		BitSet candidates = (BitSet) alwaysCandidates.clone();
+		for (PathIndex path : paths.values()) {
+			path.addCandidates(context, candidates);
+		}
+		return candidates;
+	}
+	
+	public List<Operation<T>> getRules() {
+		return rules;
+	}
+	
+	private Condition getCondition(int rule, Operation<T> operation) {
+		List<Operation<T>> conjuncts = new ArrayList<Operation<T>>();
+		flatten(operation, Type.LOGICAL_AND, conjuncts);
+		Condition range = null;
+		for (Operation<T> conjunct : conjuncts) {
+			Condition condition = toCondition(rule, conjunct);
+			if (condition != null && condition.operator == Type.EQUALS) {
+				register(condition);
+				return condition;
+			}
+			else if (condition != null && range == null) {
+				range = condition;
+			}
+		}
+		if (range != null) {
+			register(range);
+		}
+		return range;
+	}
+	
+	private void register(Condition condition) {
+		StructuralKey key = new StructuralKey(condition.path);
+		PathIndex index = paths.get(key);
+		if (index == null) {
+			index = new PathIndex(condition.path);
+			paths.put(key, index);
+		}
+		index.conditions.add(condition);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void flatten(Operation<T> operation, Type operator, List<Operation<T>> result) {
+		List<QueryPart> parts = operation.getParts();
+		if (isPlainClassic(operation) && parts.size() == 3 && parts.get(1).getType() == operator && parts.get(0).getContent() instanceof Operation && parts.get(2).getContent() instanceof Operation) {
+			flatten((Operation<T>) parts.get(0).getContent(), operator, result);
+			flatten((Operation<T>) parts.get(2).getContent(), operator, result);
+		}
+		else {
+			result.add(operation);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Condition toCondition(int rule, Operation<T> operation) {
+		List<Operation<T>> disjuncts = new ArrayList<Operation<T>>();
+		flatten(operation, Type.LOGICAL_OR, disjuncts);
+		Condition condition = null;
+		for (Operation<T> disjunct : disjuncts) {
+			List<QueryPart> parts = disjunct.getParts();
+			if (!isPlainClassic(disjunct) || parts.size() != 3 || !(parts.get(0).getContent() instanceof Operation) || !isLiteral(parts.get(2))) {
+				return null;
+			}
+			Type operator = parts.get(1).getType();
+			Operation<T> path = (Operation<T>) parts.get(0).getContent();
+			if (path.getType() != OperationType.VARIABLE || !EvaluationUtils.isSideEffectFree(path)) {
+				return null;
+			}
+			if (condition == null) {
+				switch (operator) {
+					case EQUALS:
+					case GREATER:
+					case GREATER_OR_EQUALS:
+					case LESSER:
+					case LESSER_OR_EQUALS:
+						condition = new Condition(rule, operator, path);
+					break;
+					default:
+						return null;
+				}
+			}
+			// only a list of equalities on the same path can be combined
+			else if (operator != Type.EQUALS || condition.operator != Type.EQUALS || !EvaluationUtils.isStructurallyEqual(path, condition.path)) {
+				return null;
+			}
+			condition.literals.add(parts.get(2).getContent());
+			condition.operations.add((ClassicOperation<T>) disjunct);
+		}
+		return condition;
+	}
+	
+	private boolean isLiteral(QueryPart part) {
+		return part.getType().isNative() && part.getType() != Type.NULL && part.getType() != Type.UNDEFINED && part.getContent() != null;
+	}
+	
+	private boolean isPlainClassic(Operation<T> operation) {
+		return ClassicOperation.class.equals(operation.getClass());
+	}
+	
+	private class Condition {
+		private int rule;
+		private Type operator;
+		private Operation<T> path;
+		private List<Object> literals = new ArrayList<Object>();
+		// the operations the literals come from, they determine how the literal is converted
+		private List<ClassicOperation<T>> operations = new ArrayList<ClassicOperation<T>>();
+		
+		public Condition(int rule, Type operator, Operation<T> path) {
+			this.rule = rule;
+			this.operator = operator;
+			this.path = path;
+		}
+	}
+	
+	private class PathIndex {
+		private Operation<T> path;
+		private List<Condition> conditions = new ArrayList<Condition>();
+		// the literals have to be converted to the type of the value, so we build an index per type
+		private Map<Class<?>, ClassIndex> indexes = new ConcurrentHashMap<Class<?>, ClassIndex>();
+		
+		public PathIndex(Operation<T> path) {
+			this.path = path;
+		}
+		
+		public void addCandidates(T context, BitSet candidates) {
+			Object value;
+			try {
+				value = ClassicOperation.normalize(path.evaluate(context));
+			}
+			catch (Exception e) {
+				// let the rules themselves deal with it
+				for (Condition condition : conditions) {
+					candidates.set(condition.rule);
+				}
+				return;
+			}
+			// the comparisons are always false for null values
+			if (value == null) {
+				return;
+			}
+			ClassIndex index = indexes.get(value.getClass());
+			if (index == null) {
+				index = new ClassIndex(value.getClass(), conditions);
+				indexes.put(value.getClass(), index);
+			}
+			index.addCandidates(value, candidates);
+		}
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private class ClassIndex {
+		private BitSet always = new BitSet();
+		private Map<Object, BitSet> equals = new HashMap<Object, BitSet>();
+		private Map<Type, TreeMap<Object, BitSet>> ranges = new HashMap<Type, TreeMap<Object, BitSet>>();
+		
+		public ClassIndex(Class<?> type, List<Condition> conditions) {
+			boolean comparable = Comparable.class.isAssignableFrom(type);
+			for (Condition condition : conditions) {
+				// doubles and floats are compared with a margin
+				if (condition.operator == Type.EQUALS && (Double.class.equals(type) || Float.class.equals(type))) {
+					always.set(condition.rule);
+					continue;
+				}
+				// the operation would fail on the comparison
+				else if (condition.operator != Type.EQUALS && !comparable) {
+					always.set(condition.rule);
+					continue;
+				}
+				for (int i = 0; i < condition.literals.size(); i++) {
+					Object literal;
+					try {
+						literal = condition.operations.get(i).getConverter().convert(ClassicOperation.normalize(condition.literals.get(i)), type);
+					}
+					catch (Exception e) {
+						// for equality a failed conversion means the literal is not equal, for the others it is an error the rule should report
+						if (condition.operator != Type.EQUALS) {
+							always.set(condition.rule);
+						}
+						continue;
+					}
+					// a null literal never matches
+					if (literal == null) {
+						continue;
+					}
+					if (condition.operator == Type.EQUALS) {
+						add(equals, key(literal), condition.rule);
+					}
+					else {
+						TreeMap<Object, BitSet> range = ranges.get(condition.operator);
+						if (range == null) {
+							range = new TreeMap<Object, BitSet>();
+							ranges.put(condition.operator, range);
+						}
+						add(range, literal, condition.rule);
+					}
+				}
+			}
+		}
+		
+		private void add(Map<Object, BitSet> map, Object key, int rule) {
+			BitSet rules = map.get(key);
+			if (rules == null) {
+				rules = new BitSet();
+				map.put(key, rules);
+			}
+			rules.set(rule);
+		}
+		
+		// the operation compares dates by their timestamp and big decimals regardless of their scale
+		private Object key(Object value) {
+			if (value instanceof java.util.Date) {
+				return ((java.util.Date) value).getTime();
+			}
+			else if (value instanceof BigDecimal) {
+				return ((BigDecimal) value).stripTrailingZeros();
+			}
+			return value;
+		}
+		
+		public void addCandidates(Object value, BitSet candidates) {
+			candidates.or(always);
+			BitSet rules = equals.get(key(value));
+			if (rules != null) {
+				candidates.or(rules);
+			}
+			for (Map.Entry<Type, TreeMap<Object, BitSet>> entry : ranges.entrySet()) {
+				NavigableMap<Object, BitSet> matching;
+				try {
+					switch (entry.getKey()) {
+						// value > literal
+						case GREATER:
+							matching = entry.getValue().headMap(value, false);
+						break;
+						case GREATER_OR_EQUALS:
+							matching = entry.getValue().headMap(value, true);
+						break;
+						case LESSER:
+							matching = entry.getValue().tailMap(value, false);
+						break;
+						default:
+							matching = entry.getValue().tailMap(value, true);
+					}
+				}
+				catch (ClassCastException e) {
+					// leave it to the operations
+					matching = entry.getValue();
+				}
+				for (BitSet matchingRules : matching.values()) {
+					candidates.or(matchingRules);
+				}
+			}
+		}
+	}
+}
@@ -17,10 +17,15 @@
 
 package be.nabu.libs.evaluator;
 
+/**
+ * A token is a region in the original query, the content is only turned into a string when it is requested and that string is not kept
+ * The source must not be changed while tokens refer to it
+ */
 public class StringToken {
 	
+	private CharSequence source;
 	private String content, preamble;
-	private int start, end;
+	private int start, end, preambleStart;
 	
 	public StringToken(String content, String preamble, int start, int end) {
 		this.content = content;
@@ -29,7 +34,23 @@ public class StringToken {
 		this.end = end;
 	}
 	
+	/**
+	 * The preamble is the (ignored) text between the previous token and this one, if there is none, the preamble start is equal to the start
+	 */
+	public StringToken(CharSequence source, int preambleStart, int start, int end) {
+		this.source = source;
+		this.preambleStart = preambleStart;
+		this.start = start;
+		this.end = end;
+	}
+	
+	/**
+	 * For tokens that refer to a source, a new string is created on every call, it is not kept in the token
+	 */
 	public String getContent() {
+		if (source != null) {
+			return source.subSequence(start, end).toString();
+		}
 		return content;
 	}
 	public int getStart() {
@@ -40,6 +61,20 @@ public class StringToken {
 	}
 
 	public String getPreamble() {
-		return preamble;
+		if (source == null) {
+			return preamble;
+		}
+		return preambleStart < start ? source.subSequence(preambleStart, start).toString() : null;
+	}
+	
+	/**
+	 * The source the offsets point to, this is null if the token was created with a fixed content
+	 */
+	public CharSequence getSource() {
+		return source;
+	}
+	
+	public int getPreambleStart() {
+		return source == null ? start : preambleStart;
 	}
 }
@@ -0,0 +1,165 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.evaluator.EvaluationUtils.StructuralKey;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.Optimizer;
+import be.nabu.libs.evaluator.base.Reserved;
+import be.nabu.libs.evaluator.impl.CachedOperation;
+import be.nabu.libs.evaluator.impl.MethodOperation;
+import be.nabu.libs.evaluator.impl.ScopedOperation;
+
+/**
+ * Suppose you have:
+ * 
+ * order/customer/score > 10 && order/customer/score < 50 || order/customer/score == 0
+ * 
+ * The variable is resolved up to three times for a single evaluation. This optimizer finds subexpressions that appear multiple times and makes sure they are evaluated at most once per evaluation.
+ * 
+ * Only subexpressions that are evaluated against the same context as the root operation are considered, this means we do not look inside variable operations (e.g. filters) as they are evaluated against other contexts.
+ * If the operation contains a method call that is not pure, we leave it alone as it might change the outcome of a repeated subexpression.
+ */
+public class SubexpressionEliminator<T> implements Optimizer<T> {
+
+	private OperationProvider<T> operationProvider;
+	private Map<OperationType, Class<?>> providedClasses = new HashMap<OperationType, Class<?>>();
+	
+	public SubexpressionEliminator(OperationProvider<T> operationProvider) {
+		this.operationProvider = operationProvider;
+	}
+	
+	@Override
+	public Operation<T> optimize(Operation<T> operation) throws ParseException {
+		// the root itself must be evaluated against the context, e.g. the filters of a variable operation are evaluated against other contexts
+		if (!isTraversable(operation) || !EvaluationUtils.isSideEffectFree(operation)) {
+			return operation;
+		}
+		Map<StructuralKey, Integer> counts = new HashMap<StructuralKey, Integer>();
+		count(operation, counts);
+		Map<StructuralKey, Integer> slots = new HashMap<StructuralKey, Integer>();
+		for (StructuralKey key : counts.keySet()) {
+			if (counts.get(key) > 1) {
+				slots.put(key, slots.size());
+			}
+		}
+		if (slots.isEmpty()) {
+			return operation;
+		}
+		ScopedOperation<T> scope = new ScopedOperation<T>(slots.size());
+		scope.setOperation(rewrite(operation, scope, slots, new HashMap<StructuralKey, Operation<T>>()));
+		return scope;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void count(Operation<T> operation, Map<StructuralKey, Integer> counts) {
+		boolean allowCandidates = allowsCandidates(operation);
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				if (allowCandidates && isCandidate(child)) {
+					StructuralKey key = new StructuralKey(child);
+					Integer count = counts.get(key);
+					counts.put(key, count == null ? 1 : count + 1);
+					// only the first occurrence survives, so we only look inside that one
+					if (count == null && isTraversable(child)) {
+						count(child, counts);
+					}
+				}
+				else if (isTraversable(child)) {
+					count(child, counts);
+				}
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Operation<T> rewrite(Operation<T> operation, ScopedOperation<T> scope, Map<StructuralKey, Integer> slots, Map<StructuralKey, Operation<T>> shared) throws ParseException {
+		boolean allowCandidates = allowsCandidates(operation);
+		boolean changed = false;
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.OPERATION && part.getContent() instanceof Operation) {
+				Operation<T> child = (Operation<T>) part.getContent();
+				Operation<T> replacement = child;
+				StructuralKey key = allowCandidates && isCandidate(child) ? new StructuralKey(child) : null;
+				if (key != null && slots.containsKey(key)) {
+					replacement = shared.get(key);
+					if (replacement == null) {
+						replacement = new CachedOperation<T>(isTraversable(child) ? rewrite(child, scope, slots, shared) : child, scope, slots.get(key));
+						shared.put(key, replacement);
+					}
+				}
+				else if (isTraversable(child)) {
+					replacement = rewrite(child, scope, slots, shared);
+				}
+				if (replacement != child) {
+					parts.add(new QueryPart(part.getToken(), part.getType(), replacement));
+					changed = true;
+					continue;
+				}
+			}
+			parts.add(part);
+		}
+		return changed ? EvaluationUtils.copy(operation, parts, operationProvider) : operation;
+	}
+	
+	// the undefined check needs access to the actual variable operation
+	private boolean allowsCandidates(Operation<T> operation) {
+		for (QueryPart part : operation.getParts()) {
+			if (Reserved.UNDEFINED.equals(part.getContent())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// native operations are not worth caching and folded methods are already cached
+	private boolean isCandidate(Operation<T> operation) {
+		switch (operation.getType()) {
+			case VARIABLE:
+			case CLASSIC:
+				return true;
+			case METHOD:
+				return !(operation instanceof MethodOperation) || !((MethodOperation<T>) operation).isFolded();
+			default:
+				return false;
+		}
+	}
+	
+	// we only look inside operations that are evaluated against the same context and that we can recreate with the provider
+	private boolean isTraversable(Operation<T> operation) {
+		return (operation.getType() == OperationType.CLASSIC || operation.getType() == OperationType.METHOD) && operation.getClass().equals(getProvidedClass(operation.getType()));
+	}
+	
+	private Class<?> getProvidedClass(OperationType type) {
+		if (!providedClasses.containsKey(type)) {
+			providedClasses.put(type, operationProvider.newOperation(type).getClass());
+		}
+		return providedClasses.get(type);
+	}
+}
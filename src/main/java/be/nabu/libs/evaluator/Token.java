@@ -66,7 +66,16 @@ public class Token<T> {
 	}
 	
 	public Token<T> normalize() {
-		return removed ? (replacement == null ? null : replacement.normalize()) : this;
+		// long chains of removed tokens can occur in large expressions, don't recurse
+		Token<T> current = this;
+		while (current != null && current.removed) {
+			current = current.replacement;
+		}
+		// remember the result so the next lookup is immediate
+		if (removed) {
+			replacement = current;
+		}
+		return current;
 	}
 	
 	/**
@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.api;
+
+import java.text.ParseException;
+import java.util.List;
+
+import be.nabu.libs.evaluator.QueryPart;
+
+/**
+ * Listeners are picked up through the service loader or can be registered at runtime in the EvaluationListenerFactory
+ * They are called synchronously on the thread that does the work, so keep them fast.
+ * The durations are in nanoseconds, the exception is null if the step succeeded.
+ */
+public interface EvaluationListener {
+	// a query was parsed, this is not triggered if the query was already in the cache
+	public default void parsed(String query, List<QueryPart> parts, long duration, ParseException exception) {
+		// do nothing
+	}
+	// the parts were analyzed into an operation, the operation is null if it failed
+	public default void analyzed(List<QueryPart> parts, Operation<?> operation, long duration, ParseException exception) {
+		// do nothing
+	}
+	// an operation was evaluated, note that this is also triggered for all the child operations
+	public default void evaluated(Operation<?> operation, long duration, Object result, Exception exception) {
+		// do nothing
+	}
+	// a filter in the operation was applied to a number of items
+	public default void iterated(Operation<?> operation, int items) {
+		// do nothing
+	}
+}
@@ -0,0 +1,28 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.api;
+
+import java.text.ParseException;
+
+/**
+ * An optimizer rewrites an analyzed operation into one that gives the same result but evaluates faster
+ * The original operation is never modified, if something has to change, a new operation is returned
+ */
+public interface Optimizer<T> {
+	public Operation<T> optimize(Operation<T> operation) throws ParseException;
+}
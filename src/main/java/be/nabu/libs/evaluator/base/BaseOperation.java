@@ -38,7 +38,7 @@ import be.nabu.libs.evaluator.api.Operation;
  */
 abstract public class BaseOperation<T> implements Operation<T> {
 	
-	private List<QueryPart> parts = new ArrayList<QueryPart>();
+	private ArrayList<QueryPart> parts = new ArrayList<QueryPart>();
 	
 	@Override
 	public void add(QueryPart part) {
@@ -50,6 +50,13 @@ abstract public class BaseOperation<T> implements Operation<T> {
 		return parts;
 	}
 	
+	/**
+	 * Releases the unused capacity of the parts list, operations rarely have more than a few parts
+	 */
+	public void trimToSize() {
+		parts.trimToSize();
+	}
+	
 	@Override
 	public String toString() {
 		return toTreeString();
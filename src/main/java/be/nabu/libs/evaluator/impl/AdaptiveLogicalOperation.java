@@ -0,0 +1,286 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.operations.And;
+import be.nabu.libs.evaluator.api.operations.Or;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Evaluates a chain of side effect free operands that are all combined with the same logical operator, e.g. "a && b && c"
+ *
+ * For every operand we keep track of how long it takes (sampled) and how often it decides the outcome (false for AND, true for OR).
+ * Periodically the operands are reordered so cheap and decisive checks run first, the result itself does not depend on the order.
+ *
+ * Should an operand return a value that has its own logic for the operator or should an operand fail, the original chain is used from then on.
+ *
+ * To the outside world this operation looks like the chain it wraps
+ */
+public class AdaptiveLogicalOperation<T> extends BaseOperation<T> {
+	
+	private static final int SAMPLE_RATE = 16;
+	
+	/**
+	 * The source used to measure the cost of an operand
+	 */
+	public interface Clock {
+		public long nanoTime();
+	}
+	
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+	
+	private Operation<T> operation;
+	private Type operator;
+	private QueryPart [] operands;
+	private int interval = Integer.parseInt(System.getProperty("evaluator.adaptive.interval", "1024"));
+	
+	private AtomicLong evaluations = new AtomicLong();
+	private AtomicLongArray samples, durations, decisions;
+	private volatile int [] order;
+	private volatile boolean disabled;
+	// the last known rank of each operand, only accessed while reordering
+	private double [] ranks;
+	private Converter converter;
+	private Clock clock = SYSTEM_CLOCK;
+	
+	public AdaptiveLogicalOperation(Operation<T> operation, Type operator, List<QueryPart> operands) {
+		if (operator != Type.LOGICAL_AND && operator != Type.LOGICAL_OR) {
+			throw new IllegalArgumentException("Only logical operators can be reordered: " + operator);
+		}
+		this.operation = operation;
+		this.operator = operator;
+		this.operands = operands.toArray(new QueryPart[operands.size()]);
+		this.samples = new AtomicLongArray(this.operands.length);
+		this.durations = new AtomicLongArray(this.operands.length);
+		this.decisions = new AtomicLongArray(this.operands.length);
+		this.ranks = new double[this.operands.length];
+		this.order = new int[this.operands.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		for (QueryPart part : operation.getParts()) {
+			super.add(part);
+		}
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("An adaptive operation can not be modified");
+	}
+	
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+	
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		if (disabled) {
+			return operation.evaluate(context);
+		}
+		long evaluation = evaluations.incrementAndGet();
+		boolean sample = evaluation % SAMPLE_RATE == 0;
+		int [] order = this.order;
+		boolean decisive = operator == Type.LOGICAL_OR;
+		Clock clock = this.clock;
+		try {
+			for (int index : order) {
+				long started = sample ? clock.nanoTime() : 0;
+				Object value = getOperand(context, operands[index]);
+				// the value decides for itself what the operator means, only the original chain knows how to deal with that
+				if ((operator == Type.LOGICAL_AND && value instanceof And) || (operator == Type.LOGICAL_OR && value instanceof Or)) {
+					disabled = true;
+					return operation.evaluate(context);
+				}
+				boolean result = toBoolean(value);
+				if (sample) {
+					samples.incrementAndGet(index);
+					durations.addAndGet(index, clock.nanoTime() - started);
+					if (result == decisive) {
+						decisions.incrementAndGet(index);
+					}
+				}
+				if (result == decisive) {
+					return decisive;
+				}
+			}
+			return !decisive;
+		}
+		catch (EvaluationException e) {
+			if (isOriginalOrder(order)) {
+				throw e;
+			}
+			return fallback(context);
+		}
+		catch (RuntimeException e) {
+			if (isOriginalOrder(order)) {
+				throw e;
+			}
+			return fallback(context);
+		}
+		finally {
+			if (interval > 0 && evaluation % interval == 0) {
+				reorder();
+			}
+		}
+	}
+	
+	// an operand may only be safe to evaluate because of the operands that originally came before it (e.g. a guard)
+	private Object fallback(T context) throws EvaluationException {
+		disabled = true;
+		return operation.evaluate(context);
+	}
+	
+	private boolean isOriginalOrder(int [] order) {
+		for (int i = 0; i < order.length; i++) {
+			if (order[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// same logic as the classic operation: null is false and anything that can not be converted is true
+	private boolean toBoolean(Object value) {
+		if (value == null) {
+			return false;
+		}
+		Boolean converted = getConverter().convert(value, Boolean.class);
+		return converted == null || converted;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Object getOperand(T context, QueryPart part) throws EvaluationException {
+		if (part.getType().isNative()) {
+			return part.getContent();
+		}
+		else if (part.getType() == QueryPart.Type.OPERATION) {
+			return ((Operation<T>) part.getContent()).evaluate(context);
+		}
+		else {
+			throw new EvaluationException("Expecting either a native part or an operation");
+		}
+	}
+	
+	/**
+	 * Sorts the operands by the expected cost to reach a decision: the average duration divided by the chance that the operand is decisive
+	 * Operands that were never measured go first so we get an idea of their cost, operands that were not measured since the last reordering keep their rank
+	 * The statistics are halved afterwards so older evaluations weigh less
+	 */
+	private synchronized void reorder() {
+		for (int i = 0; i < operands.length; i++) {
+			long samples = this.samples.get(i);
+			if (samples > 0) {
+				double duration = (double) durations.get(i) / samples;
+				double chance = (decisions.get(i) + 1d) / (samples + 2d);
+				ranks[i] = duration / chance;
+			}
+			this.samples.set(i, samples / 2);
+			durations.set(i, durations.get(i) / 2);
+			decisions.set(i, decisions.get(i) / 2);
+		}
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int index : order) {
+			indexes.add(index);
+		}
+		// the sort is stable so operands with the same rank keep their current position
+		Collections.sort(indexes, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(ranks[o1], ranks[o2]);
+			}
+		});
+		int [] order = new int[indexes.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = indexes.get(i);
+		}
+		this.order = order;
+	}
+	
+	@Override
+	public OperationType getType() {
+		return operation.getType();
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+	
+	public Type getOperator() {
+		return operator;
+	}
+	
+	/**
+	 * The operands in the order they are currently evaluated in
+	 */
+	public List<QueryPart> getOperands() {
+		List<QueryPart> operands = new ArrayList<QueryPart>();
+		for (int index : order) {
+			operands.add(this.operands[index]);
+		}
+		return operands;
+	}
+	
+	public int getInterval() {
+		return interval;
+	}
+	
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+	
+	public Clock getClock() {
+		return clock;
+	}
+	
+	public void setClock(Clock clock) {
+		this.clock = clock == null ? SYSTEM_CLOCK : clock;
+	}
+	
+	public Converter getConverter() {
+		if (converter == null) {
+			converter = operation instanceof ClassicOperation ? ((ClassicOperation<T>) operation).getConverter() : ConverterFactory.getInstance().getConverter();
+		}
+		return converter;
+	}
+	
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Evaluates the wrapped operation at most once per evaluation scope of the owner and reuses the value afterwards
+ * If there is no open scope for the owner, the wrapped operation is evaluated every time
+ * 
+ * To the outside world this operation looks like the one it wraps
+ */
+public class CachedOperation<T> extends BaseOperation<T> {
+
+	private Operation<T> operation;
+	private Object owner;
+	private int index;
+	
+	public CachedOperation(Operation<T> operation, Object owner, int index) {
+		this.operation = operation;
+		this.owner = owner;
+		this.index = index;
+		for (QueryPart part : operation.getParts()) {
+			super.add(part);
+		}
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("A cached operation can not be modified");
+	}
+
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		EvaluationScope scope = EvaluationScope.get(owner);
+		if (scope == null) {
+			return operation.evaluate(context);
+		}
+		else if (!scope.isResolved(index)) {
+			scope.set(index, operation.evaluate(context));
+		}
+		return scope.get(index);
+	}
+
+	@Override
+	public OperationType getType() {
+		return operation.getType();
+	}
+
+	public Operation<T> getOperation() {
+		return operation;
+	}
+	
+	public Object getOwner() {
+		return owner;
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+}
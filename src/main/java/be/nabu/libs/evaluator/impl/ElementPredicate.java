@@ -0,0 +1,58 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * If a method has a parameter of this type, the argument is not evaluated when the method is called but passed along as a predicate
+ * The method can then test it against elements the same way a filter would: the element is the current context ("$this") and the context the method was called in is its parent ("..")
+ */
+public class ElementPredicate<T> {
+	
+	private Operation<T> operation;
+	private T context;
+	
+	public ElementPredicate(Operation<T> operation, T context) {
+		this.operation = operation;
+		this.context = context;
+	}
+	
+	/**
+	 * The predicate is interpreted the same way as a filter: null is false and any other result must be a boolean
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean test(Object element) throws EvaluationException {
+		Boolean result = (Boolean) VariableOperation.evaluateFilter(operation, context, (T) element);
+		return result != null && result;
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+	
+	public T getContext() {
+		return context;
+	}
+	
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+}
@@ -0,0 +1,97 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A scope holds values that are only valid for the duration of a single evaluation, for example the result of a subexpression that appears multiple times
+ * Scopes are opened per thread and belong to an owner, operations that want to use the scope look it up by that owner
+ * If no scope is open for the owner, the operation should simply evaluate as it normally would
+ */
+public class EvaluationScope {
+	
+	private static final Object UNRESOLVED = new Object();
+	
+	private static ThreadLocal<List<EvaluationScope>> scopes = new ThreadLocal<List<EvaluationScope>>();
+	
+	private Object owner;
+	private Object[] values;
+	
+	private EvaluationScope(Object owner, int size) {
+		this.owner = owner;
+		this.values = new Object[size];
+		Arrays.fill(values, UNRESOLVED);
+	}
+	
+	public static EvaluationScope open(Object owner, int size) {
+		List<EvaluationScope> list = scopes.get();
+		if (list == null) {
+			list = new ArrayList<EvaluationScope>();
+			scopes.set(list);
+		}
+		EvaluationScope scope = new EvaluationScope(owner, size);
+		list.add(scope);
+		return scope;
+	}
+	
+	/**
+	 * Returns the most recently opened scope for the given owner on this thread (if any)
+	 */
+	public static EvaluationScope get(Object owner) {
+		List<EvaluationScope> list = scopes.get();
+		if (list != null) {
+			for (int i = list.size() - 1; i >= 0; i--) {
+				if (list.get(i).owner == owner) {
+					return list.get(i);
+				}
+			}
+		}
+		return null;
+	}
+	
+	public void close() {
+		List<EvaluationScope> list = scopes.get();
+		if (list != null) {
+			for (int i = list.size() - 1; i >= 0; i--) {
+				if (list.get(i) == this) {
+					list.remove(i);
+					break;
+				}
+			}
+		}
+	}
+	
+	public boolean isResolved(int index) {
+		return values[index] != UNRESOLVED;
+	}
+	
+	public Object get(int index) {
+		return values[index] == UNRESOLVED ? null : values[index];
+	}
+	
+	public void set(int index, Object value) {
+		values[index] = value;
+	}
+
+	public Object getOwner() {
+		return owner;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.EvaluationListener;
+import be.nabu.libs.evaluator.api.Operation;
+
+/**
+ * Keeps track of the counts and latencies per expression, it is not registered by default, you can add it to the EvaluationListenerFactory or expose it through the service loader.
+ * The counters are striped so concurrent evaluations of the same expression do not contend on a single value.
+ * 
+ * Evaluations are tracked per operation instance, the expression string is only calculated when you ask for the statistics.
+ * Operations are held on to until you reset the statistics.
+ */
+public class EvaluationStatistics implements EvaluationListener {
+
+	private ConcurrentHashMap<String, Statistics> parsed = new ConcurrentHashMap<String, Statistics>();
+	private ConcurrentHashMap<Operation<?>, Statistics> evaluated = new ConcurrentHashMap<Operation<?>, Statistics>();
+	private volatile Statistics analyzed = new Statistics();
+	
+	@Override
+	public void parsed(String query, List<QueryPart> parts, long duration, ParseException exception) {
+		Statistics statistics = parsed.get(query);
+		if (statistics == null) {
+			statistics = new Statistics();
+			Statistics existing = parsed.putIfAbsent(query, statistics);
+			if (existing != null) {
+				statistics = existing;
+			}
+		}
+		statistics.add(duration, exception != null);
+	}
+
+	@Override
+	public void analyzed(List<QueryPart> parts, Operation<?> operation, long duration, ParseException exception) {
+		analyzed.add(duration, exception != null);
+	}
+
+	@Override
+	public void evaluated(Operation<?> operation, long duration, Object result, Exception exception) {
+		Statistics statistics = evaluated.get(operation);
+		if (statistics == null) {
+			statistics = new Statistics();
+			Statistics existing = evaluated.putIfAbsent(operation, statistics);
+			if (existing != null) {
+				statistics = existing;
+			}
+		}
+		statistics.add(duration, exception != null);
+	}
+	
+	/**
+	 * The evaluation statistics per expression, different operations for the same expression are merged
+	 */
+	public Map<String, Statistics> getEvaluated() {
+		Map<String, Statistics> result = new LinkedHashMap<String, Statistics>();
+		for (Map.Entry<Operation<?>, Statistics> entry : evaluated.entrySet()) {
+			String key = entry.getKey().toString();
+			Statistics statistics = result.get(key);
+			if (statistics == null) {
+				statistics = new Statistics();
+				result.put(key, statistics);
+			}
+			statistics.merge(entry.getValue());
+		}
+		return result;
+	}
+	
+	public Map<String, Statistics> getParsed() {
+		return new LinkedHashMap<String, Statistics>(parsed);
+	}
+	
+	public Statistics getAnalyzed() {
+		return analyzed;
+	}
+	
+	public void reset() {
+		parsed.clear();
+		evaluated.clear();
+		analyzed = new Statistics();
+	}
+	
+	/**
+	 * The latencies are kept in a histogram with power of two buckets, bucket i contains the durations between 2^i and 2^(i+1) nanoseconds
+	 */
+	public static class Statistics {
+		private LongAdder count = new LongAdder(), errors = new LongAdder(), total = new LongAdder();
+		private LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+			@Override
+			public long applyAsLong(long left, long right) {
+				return Math.max(left, right);
+			}
+		}, 0);
+		private LongAdder [] histogram = new LongAdder[64];
+		
+		public Statistics() {
+			for (int i = 0; i < histogram.length; i++) {
+				histogram[i] = new LongAdder();
+			}
+		}
+		
+		void add(long duration, boolean failed) {
+			count.increment();
+			if (failed) {
+				errors.increment();
+			}
+			total.add(duration);
+			max.accumulate(duration);
+			histogram[getBucket(duration)].increment();
+		}
+		
+		void merge(Statistics statistics) {
+			count.add(statistics.getCount());
+			errors.add(statistics.getErrors());
+			total.add(statistics.getTotal());
+			max.accumulate(statistics.getMax());
+			for (int i = 0; i < histogram.length; i++) {
+				histogram[i].add(statistics.histogram[i].sum());
+			}
+		}
+		
+		private static int getBucket(long duration) {
+			return duration <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(duration);
+		}
+		
+		public long getCount() {
+			return count.sum();
+		}
+		public long getErrors() {
+			return errors.sum();
+		}
+		// the total duration in nanoseconds
+		public long getTotal() {
+			return total.sum();
+		}
+		public long getMax() {
+			return max.get();
+		}
+		public long getAverage() {
+			long count = getCount();
+			return count == 0 ? 0 : getTotal() / count;
+		}
+		public long [] getHistogram() {
+			long [] result = new long[histogram.length];
+			for (int i = 0; i < histogram.length; i++) {
+				result[i] = histogram[i].sum();
+			}
+			return result;
+		}
+		/**
+		 * An upper bound for the given percentile (e.g. 0.99), it is accurate up to a factor two
+		 */
+		public long getPercentile(double percentile) {
+			long [] histogram = getHistogram();
+			long count = 0;
+			for (long amount : histogram) {
+				count += amount;
+			}
+			long threshold = (long) Math.ceil(count * percentile);
+			long seen = 0;
+			for (int i = 0; i < histogram.length; i++) {
+				seen += histogram[i];
+				if (seen >= threshold && seen > 0) {
+					return i >= 62 ? Long.MAX_VALUE : (1l << (i + 1)) - 1;
+				}
+			}
+			return 0;
+		}
+		@Override
+		public String toString() {
+			return "count: " + getCount() + ", errors: " + getErrors() + ", average: " + getAverage() + "ns, p99: " + getPercentile(0.99) + "ns, max: " + getMax() + "ns";
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Wraps a filter that contains cached operations which do not depend on the element being filtered
+ * The variable operation opens a scope (owned by this operation) for the duration of a single filter invocation so the cached operations are evaluated at most once for all the elements
+ * 
+ * If it is evaluated outside of a filter, it opens a new scope for every evaluation
+ */
+public class FilterScopeOperation<T> extends BaseOperation<T> {
+	
+	private Operation<T> operation;
+	private int size;
+	
+	public FilterScopeOperation(int size) {
+		this.size = size;
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("A filter scope operation can not be modified");
+	}
+	
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+	
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		if (EvaluationScope.get(this) != null) {
+			return operation.evaluate(context);
+		}
+		EvaluationScope scope = EvaluationScope.open(this, size);
+		try {
+			return operation.evaluate(context);
+		}
+		finally {
+			scope.close();
+		}
+	}
+	
+	@Override
+	public OperationType getType() {
+		return operation.getType();
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+	
+	public void setOperation(Operation<T> operation) {
+		if (this.operation != null) {
+			throw new IllegalStateException("The filtered operation is already set");
+		}
+		this.operation = operation;
+		for (QueryPart part : operation.getParts()) {
+			super.add(part);
+		}
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Evaluates "path == literal1 || path == literal2 || ..." by resolving the path once and looking up the value in a set of literals
+ *
+ * The equality converts the literal to the type of the value, so we build a set for each type of value we encounter.
+ * Doubles and floats are compared with a margin so they can not be hashed, for those values the original operation is used.
+ *
+ * To the outside world this operation looks like the one it replaces
+ */
+public class MembershipOperation<T> extends BaseOperation<T> {
+	
+	private Operation<T> operation;
+	private Operation<T> path;
+	private List<Object> literals;
+	private Map<Class<?>, Set<Object>> sets = new ConcurrentHashMap<Class<?>, Set<Object>>();
+	private Converter converter;
+	
+	public MembershipOperation(Operation<T> operation, Operation<T> path, List<Object> literals) {
+		this.operation = operation;
+		this.path = path;
+		this.literals = new ArrayList<Object>(literals);
+		for (QueryPart part : operation.getParts()) {
+			super.add(part);
+		}
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("A membership operation can not be modified");
+	}
+	
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+	
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		Object value = ClassicOperation.normalize(path.evaluate(context));
+		// the equalities are always false for null values
+		if (value == null) {
+			return false;
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			return operation.evaluate(context);
+		}
+		Set<Object> set = sets.get(value.getClass());
+		if (set == null) {
+			set = new HashSet<Object>();
+			for (Object literal : literals) {
+				Object converted;
+				try {
+					converted = getConverter().convert(ClassicOperation.normalize(literal), value.getClass());
+				}
+				// a literal that can not be converted is not equal
+				catch (Exception e) {
+					continue;
+				}
+				if (converted != null) {
+					set.add(key(converted));
+				}
+			}
+			sets.put(value.getClass(), set);
+		}
+		return set.contains(key(value));
+	}
+	
+	// the equality compares dates by their timestamp and big decimals regardless of their scale
+	private Object key(Object value) {
+		if (value instanceof java.util.Date) {
+			return ((java.util.Date) value).getTime();
+		}
+		else if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).stripTrailingZeros();
+		}
+		return value;
+	}
+	
+	@Override
+	public OperationType getType() {
+		return operation.getType();
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+	
+	public Operation<T> getPath() {
+		return path;
+	}
+	
+	public List<Object> getLiterals() {
+		return literals;
+	}
+	
+	public Converter getConverter() {
+		if (converter == null) {
+			converter = operation instanceof ClassicOperation ? ((ClassicOperation<T>) operation).getConverter() : ConverterFactory.getInstance().getConverter();
+		}
+		return converter;
+	}
+	
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+}
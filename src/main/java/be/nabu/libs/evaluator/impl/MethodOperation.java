@@ -21,19 +21,28 @@ import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import be.nabu.libs.converter.ConverterFactory;
 import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.EvaluationListenerFactory;
 import be.nabu.libs.evaluator.Methods;
+import be.nabu.libs.evaluator.QueryPart;
 import be.nabu.libs.evaluator.annotations.MethodProviderClass;
+import be.nabu.libs.evaluator.annotations.Pure;
+import be.nabu.libs.evaluator.annotations.Streaming;
+import be.nabu.libs.evaluator.api.EvaluationListener;
 import be.nabu.libs.evaluator.api.Operation;
 import be.nabu.libs.evaluator.base.BaseMethodOperation;
 
@@ -74,6 +83,34 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 	
 	private Object context;
 	
+	/**
+	 * The maximum amount of results we keep per operation for a pure method
+	 */
+	private static int memoizationSize = Integer.parseInt(System.getProperty("evaluator.pure.cacheSize", "128"));
+	
+	/**
+	 * If a pure method is called with constant arguments, the result is calculated once when the operation is finished
+	 */
+	private boolean folded;
+	private Object foldedResult;
+	
+	/**
+	 * Whether the method is pure, this is resolved once when the operation is finished
+	 */
+	private boolean pure;
+	
+	/**
+	 * Whether the method accepts streamed arguments, this is resolved once when the operation is finished
+	 */
+	private boolean streaming;
+	
+	/**
+	 * For each argument whether it is passed to the method as a predicate, this is resolved once when the operation is finished
+	 */
+	private boolean [] predicates;
+	
+	private MemoizationCache memoized;
+	
 	public MethodOperation(Collection<Class<?>> classes) {
 		this.defaultClasses.addAll(classes);
 	}
@@ -87,7 +124,101 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 	
 	@Override
 	public void finish() throws ParseException {
-		// do nothing
+		folded = false;
+		foldedResult = null;
+		Method method = null;
+		if (getParts().size() > 0 && getParts().get(0).getContent() instanceof String) {
+			try {
+				method = getMethod(getParts().size() - 1);
+			}
+			// if we can't resolve it now, it will fail again at runtime where it is properly reported
+			catch (ClassNotFoundException e) {
+				// ignore
+			}
+		}
+		pure = method != null && isPure(method);
+		streaming = isStreaming(method);
+		predicates = getPredicates(method);
+		memoized = pure && memoizationSize > 0 ? new MemoizationCache(memoizationSize) : null;
+		if (pure && hasConstantArguments()) {
+			try {
+				foldedResult = evaluate(null);
+				folded = true;
+			}
+			// if we can't calculate it now, it will fail again at runtime where it is properly reported
+			catch (Exception e) {
+				// ignore
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private boolean hasConstantArguments() {
+		for (int i = 1; i < getParts().size(); i++) {
+			Object argument = getParts().get(i).getContent();
+			// parameters look like native operations but they only get a value at evaluation time
+			if (!(argument instanceof NativeOperation && ((NativeOperation<T>) argument).getParts().get(0).getType() != QueryPart.Type.PARAMETER) && !(argument instanceof MethodOperation && ((MethodOperation<T>) argument).isFolded())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Whether the result was calculated when the operation was finished
+	 */
+	public boolean isFolded() {
+		return folded;
+	}
+	
+	/**
+	 * Whether the method that is called by this operation is pure, methods that are resolved dynamically are never considered pure
+	 */
+	public boolean isPure() {
+		return pure;
+	}
+	
+	public static boolean isPure(Method method) {
+		return method.getAnnotation(Pure.class) != null || method.getDeclaringClass().getAnnotation(Pure.class) != null;
+	}
+	
+	/**
+	 * Whether the argument at the given index (1-based as it is the index in the parts) is passed to the method as a predicate rather than evaluated
+	 */
+	public boolean isPredicate(int index) {
+		return predicates != null && index > 0 && index <= predicates.length && predicates[index - 1];
+	}
+	
+	private static boolean [] getPredicates(Method method) {
+		if (method == null) {
+			return null;
+		}
+		boolean [] predicates = new boolean[method.getParameterTypes().length];
+		boolean found = false;
+		for (int i = 0; i < predicates.length; i++) {
+			predicates[i] = ElementPredicate.class.equals(method.getParameterTypes()[i]);
+			found |= predicates[i];
+		}
+		return found ? predicates : null;
+	}
+	
+	public static boolean isStreaming(Method method) {
+		if (method == null) {
+			return false;
+		}
+		return method.getAnnotation(Streaming.class) != null || method.getDeclaringClass().getAnnotation(Streaming.class) != null;
+	}
+	
+	// we only memoize immutable values, otherwise a change to an argument would not be picked up
+	private static boolean isMemoizable(List<?> arguments) {
+		for (Object argument : arguments) {
+			if (argument != null && !(argument instanceof String || argument instanceof Integer || argument instanceof Long || argument instanceof Short 
+					|| argument instanceof Byte || argument instanceof Double || argument instanceof Float || argument instanceof Boolean || argument instanceof Character
+					|| argument instanceof BigDecimal || argument instanceof BigInteger || argument instanceof Enum || argument instanceof UUID)) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	protected Method getMethod(int amountOfParams) throws ClassNotFoundException {
@@ -171,9 +302,33 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 		return methodMap.get(methodId);
 	}
 	
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public Object evaluate(T context) throws EvaluationException {
+		EvaluationListener listener = EvaluationListenerFactory.getInstance().getListener();
+		if (listener == null) {
+			return calculate(context);
+		}
+		long started = System.nanoTime();
+		try {
+			Object result = calculate(context);
+			listener.evaluated(this, System.nanoTime() - started, result, null);
+			return result;
+		}
+		catch (EvaluationException e) {
+			listener.evaluated(this, System.nanoTime() - started, null, e);
+			throw e;
+		}
+		catch (RuntimeException e) {
+			listener.evaluated(this, System.nanoTime() - started, null, e);
+			throw e;
+		}
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Object calculate(T context) throws EvaluationException {
+		if (folded) {
+			return foldedResult;
+		}
 		try {
 			List arguments = new ArrayList();
 			for (int i = 1; i < getParts().size(); i++) {
@@ -181,12 +336,30 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 				if (argumentOperation == null) {
 					throw new EvaluationException("Can not find operation for method " + getParts().get(0) + " argument " + i + ": " + getParts().get(i));
 				}
-				arguments.add(argumentOperation.evaluate(context));
+				else if (isPredicate(i)) {
+					arguments.add(new ElementPredicate<T>(argumentOperation, context));
+				}
+				// a streaming method gets filtered paths as a stream instead of a list
+				else if (streaming && argumentOperation instanceof VariableOperation && ((VariableOperation<T>) argumentOperation).isStreamable()) {
+					arguments.add(new StreamedResult<T>((VariableOperation<T>) argumentOperation, context));
+				}
+				else {
+					arguments.add(argumentOperation.evaluate(context));
+				}
 			}
 			Method method = getMethod(arguments.size());
 			if (method == null) {
 				throw new EvaluationException("The method '" + getParts().get(0).getContent() + "' can not be resolved");
 			}
+			MemoizationCache memoized = this.memoized;
+			List<Object> key = null;
+			if (memoized != null && isMemoizable(arguments)) {
+				key = new ArrayList<Object>(arguments);
+				Object cached = memoized.get(key);
+				if (cached != MemoizationCache.MISSING) {
+					return cached;
+				}
+			}
 			int amountOfParameters = method.getParameterTypes().length;
 			// if we have fewer parameters than we have arguments, we're dealing with varargs
 			if (amountOfParameters < arguments.size()) {
@@ -218,7 +391,11 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 					arguments.set(i, ConverterFactory.getInstance().getConverter().convert(arguments.get(i), method.getParameterTypes()[i]));
 				}
 			}
-			return method.invoke(this.context, arguments.toArray());
+			Object result = method.invoke(this.context, arguments.toArray());
+			if (key != null) {
+				memoized.put(key, result);
+			}
+			return result;
 		}
 		catch (IllegalAccessException e) {
 			throw new EvaluationException(e);
@@ -257,6 +434,23 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 		public boolean isAllowed(Method method);
 	}
 
+	public List<Class<?>> getDefaultClasses() {
+		return defaultClasses;
+	}
+
+	public boolean isAllowNullCompletion() {
+		return allowNullCompletion;
+	}
+
+	/**
+	 * Reuses the methods that another operation with the same configuration has already resolved
+	 */
+	public void copyResolvedMethods(MethodOperation<?> other) {
+		synchronized(other) {
+			methods.putAll(other.methods);
+		}
+	}
+
 	public boolean isAllowAnyClass() {
 		return allowAnyClass;
 	}
@@ -264,4 +458,51 @@ public class MethodOperation<T> extends BaseMethodOperation<T> {
 	public void setAllowAnyClass(boolean allowAnyClass) {
 		this.allowAnyClass = allowAnyClass;
 	}
+	
+	/**
+	 * A bounded cache that evicts the least recently used results, it is split into stripes so concurrent evaluations rarely wait on one another
+	 */
+	private static class MemoizationCache {
+		
+		private static final Object MISSING = new Object();
+		
+		private Map<List<Object>, Object> [] stripes;
+		
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public MemoizationCache(int size) {
+			stripes = new Map[Math.min(16, size)];
+			// round up so the stripes together can hold at least the requested size
+			final int stripeSize = (size + stripes.length - 1) / stripes.length;
+			for (int i = 0; i < stripes.length; i++) {
+				stripes[i] = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+						return size() > stripeSize;
+					}
+				};
+			}
+		}
+		
+		private Map<List<Object>, Object> getStripe(List<Object> key) {
+			return stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length];
+		}
+		
+		/**
+		 * Returns MISSING if there is no result for the key, null is a valid result
+		 */
+		public Object get(List<Object> key) {
+			Map<List<Object>, Object> stripe = getStripe(key);
+			synchronized(stripe) {
+				return stripe.containsKey(key) ? stripe.get(key) : MISSING;
+			}
+		}
+		
+		public void put(List<Object> key, Object value) {
+			Map<List<Object>, Object> stripe = getStripe(key);
+			synchronized(stripe) {
+				stripe.put(key, value);
+			}
+		}
+	}
 }
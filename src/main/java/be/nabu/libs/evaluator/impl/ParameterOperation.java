@@ -0,0 +1,82 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Returns the value that was bound for this parameter in the evaluation scope of the owner
+ * It presents itself as a native operation because that is what it replaces, but it deliberately does not extend NativeOperation as its value is not known up front
+ */
+public class ParameterOperation<T> extends BaseOperation<T> {
+
+	private Object owner;
+	private int index;
+	
+	public ParameterOperation(Object owner, int index, QueryPart part) {
+		this.owner = owner;
+		this.index = index;
+		super.add(part);
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("A parameter operation can not be modified");
+	}
+	
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		EvaluationScope scope = EvaluationScope.get(owner);
+		if (scope == null || !scope.isResolved(index)) {
+			throw new EvaluationException("No value bound for parameter: " + this);
+		}
+		return scope.get(index);
+	}
+
+	@Override
+	public OperationType getType() {
+		return OperationType.NATIVE;
+	}
+	
+	public String getName() {
+		return (String) getParts().get(0).getContent();
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+	
+	public Object getOwner() {
+		return owner;
+	}
+	
+	@Override
+	public String toString() {
+		return "?" + getName();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Opens a new evaluation scope (owned by this operation) for every evaluation of the wrapped operation
+ * Cached operations that belong to this scope will be evaluated at most once per evaluation
+ */
+public class ScopedOperation<T> extends BaseOperation<T> {
+
+	private Operation<T> operation;
+	private int size;
+	
+	public ScopedOperation(int size) {
+		this.size = size;
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("A scoped operation can not be modified");
+	}
+	
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		EvaluationScope scope = EvaluationScope.open(this, size);
+		try {
+			return operation.evaluate(context);
+		}
+		finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public OperationType getType() {
+		return operation.getType();
+	}
+	
+	public Operation<T> getOperation() {
+		return operation;
+	}
+
+	public void setOperation(Operation<T> operation) {
+		if (this.operation != null) {
+			throw new IllegalStateException("The scoped operation is already set");
+		}
+		this.operation = operation;
+		for (QueryPart part : operation.getParts()) {
+			super.add(part);
+		}
+	}
+	
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+}
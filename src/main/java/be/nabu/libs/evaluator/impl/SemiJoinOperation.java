@@ -0,0 +1,193 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import be.nabu.libs.converter.api.Converter;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+
+/**
+ * Evaluates "element # collection" (or "element !# collection") inside a filter where the collection does not depend on the element
+ * 
+ * The collection is resolved once per evaluation scope of the owner and the values are converted to the type of the element and put in a set, turning the filter into a hash (anti) join.
+ * If the collection contains lazily resolved values or is not a collection at all (e.g. a string), the original operation is used.
+ * If there is no open scope for the owner, the original operation is used as well.
+ * 
+ * To the outside world this operation looks like the one it wraps
+ */
+public class SemiJoinOperation<T> extends BaseOperation<T> {
+	
+	private ClassicOperation<T> operation;
+	private Object owner;
+	private int index;
+	
+	public SemiJoinOperation(ClassicOperation<T> operation, Object owner, int index) {
+		if (operation.getParts().size() != 3 || (operation.getParts().get(1).getType() != Type.IN && operation.getParts().get(1).getType() != Type.NOT_IN)) {
+			throw new IllegalArgumentException("Only an in or not in operation can be joined: " + operation);
+		}
+		this.operation = operation;
+		this.owner = owner;
+		this.index = index;
+		for (QueryPart part : operation.getParts()) {
+			super.add(part);
+		}
+	}
+	
+	@Override
+	public void add(QueryPart part) {
+		throw new UnsupportedOperationException("A semi join operation can not be modified");
+	}
+	
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+	
+	@Override
+	public Object evaluate(T context) throws EvaluationException {
+		EvaluationScope scope = EvaluationScope.get(owner);
+		if (scope == null) {
+			return operation.evaluate(context);
+		}
+		try {
+			if (!scope.isResolved(index)) {
+				scope.set(index, new Lookup(getOperand(context, 2), operation.getConverter()));
+			}
+			Lookup lookup = (Lookup) scope.get(index);
+			if (lookup.values == null) {
+				return operation.evaluate(context);
+			}
+			boolean contains = lookup.contains(ClassicOperation.normalize(getOperand(context, 0)));
+			return getParts().get(1).getType() == Type.IN ? contains : !contains;
+		}
+		catch (EvaluationException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new EvaluationException("Could not perform operation: " + toString(), e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Object getOperand(T context, int position) throws EvaluationException {
+		QueryPart part = getParts().get(position);
+		if (part.getType().isNative()) {
+			return part.getContent();
+		}
+		else if (part.getType() == QueryPart.Type.OPERATION) {
+			return ((Operation<T>) part.getContent()).evaluate(context);
+		}
+		else {
+			throw new EvaluationException("Expecting either a native part or an operation");
+		}
+	}
+	
+	@Override
+	public OperationType getType() {
+		return operation.getType();
+	}
+	
+	public ClassicOperation<T> getOperation() {
+		return operation;
+	}
+	
+	public Object getOwner() {
+		return owner;
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+	
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+	
+	/**
+	 * The values of the collection, converted per type of element the same way the operation would convert them
+	 */
+	private static class Lookup {
+		private List<Object> values;
+		private Converter converter;
+		private boolean containsNull;
+		private Map<Class<?>, Set<Object>> sets = new HashMap<Class<?>, Set<Object>>();
+		
+		public Lookup(Object right, Converter converter) {
+			this.converter = converter;
+			// nothing is in a null collection
+			if (right == null) {
+				values = new ArrayList<Object>();
+			}
+			else if (right instanceof Iterable) {
+				values = new ArrayList<Object>();
+				for (Object single : (Iterable<?>) right) {
+					// resolving them up front could trigger errors the operation would never have encountered
+					if (single instanceof Callable) {
+						values = null;
+						break;
+					}
+					else if (single == null) {
+						containsNull = true;
+					}
+					else {
+						values.add(single);
+					}
+				}
+			}
+		}
+		
+		public boolean contains(Object value) {
+			if (value == null) {
+				return containsNull;
+			}
+			Set<Object> set = sets.get(value.getClass());
+			if (set == null) {
+				set = new HashSet<Object>();
+				for (Object single : values) {
+					Object converted;
+					try {
+						converted = converter.convert(single, value.getClass());
+					}
+					// a value that can not be converted is not a match
+					catch (Exception e) {
+						continue;
+					}
+					if (converted != null) {
+						set.add(converted);
+					}
+				}
+				sets.put(value.getClass(), set);
+			}
+			return set.contains(value);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.evaluator.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.api.ResultVisitor;
+
+/**
+ * The result of a path that has not been evaluated yet, it is evaluated every time it is visited
+ * It is only valid during the call of the streaming method it was passed to: the path is evaluated against the contexts that are active at that time
+ * 
+ * Code that does not know about streaming can still iterate over it, the result is then built into a list first
+ */
+public class StreamedResult<T> implements Iterable<Object> {
+	
+	private VariableOperation<T> operation;
+	private T context;
+	
+	public StreamedResult(VariableOperation<T> operation, T context) {
+		this.operation = operation;
+		this.context = context;
+	}
+	
+	public boolean visit(ResultVisitor visitor) throws EvaluationException {
+		return operation.visit(context, visitor);
+	}
+	
+	@Override
+	public Iterator<Object> iterator() {
+		final List<Object> list = new ArrayList<Object>();
+		try {
+			visit(new ResultVisitor() {
+				@Override
+				public boolean visit(Object element) {
+					list.add(element);
+					return true;
+				}
+			});
+		}
+		catch (EvaluationException e) {
+			throw new RuntimeException(e);
+		}
+		return list.iterator();
+	}
+	
+	/**
+	 * Visits the elements of a list, array, iterable or streamed result, any other value is visited as a single element
+	 * Lazy elements (callables) are passed as they are, it is up to the visitor to resolve them if it needs the value
+	 */
+	@SuppressWarnings("rawtypes")
+	public static boolean visit(Object values, ResultVisitor visitor) throws EvaluationException {
+		if (values instanceof StreamedResult) {
+			return ((StreamedResult) values).visit(visitor);
+		}
+		else if (values instanceof Object[]) {
+			for (Object element : (Object[]) values) {
+				if (!visitor.visit(element)) {
+					return false;
+				}
+			}
+		}
+		else if (values instanceof Iterable) {
+			for (Object element : (Iterable) values) {
+				if (!visitor.visit(element)) {
+					return false;
+				}
+			}
+		}
+		else if (values != null) {
+			return visitor.visit(values);
+		}
+		return true;
+	}
+	
+	public VariableOperation<T> getOperation() {
+		return operation;
+	}
+	
+	public T getContext() {
+		return context;
+	}
+}
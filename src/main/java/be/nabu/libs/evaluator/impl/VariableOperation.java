@@ -24,15 +24,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import be.nabu.libs.converter.ConverterFactory;
 import be.nabu.libs.evaluator.ContextAccessorFactory;
 import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.EvaluationListenerFactory;
 import be.nabu.libs.evaluator.QueryPart;
 import be.nabu.libs.evaluator.QueryPart.Type;
 import be.nabu.libs.evaluator.api.ContextAccessor;
+import be.nabu.libs.evaluator.api.EvaluationListener;
 import be.nabu.libs.evaluator.api.Operation;
 import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.api.ResultVisitor;
 import be.nabu.libs.evaluator.base.BaseOperation;
 import be.nabu.libs.evaluator.base.Reserved;
 
@@ -40,6 +44,8 @@ public class VariableOperation<T> extends BaseOperation<T> {
 	
 	private ContextAccessor<T> accessor = null;
 	
+	private volatile Step [] plan;
+	
 	/**
 	 * This allows missing variables to be resolved at any parent level
 	 * Be careful as this naming conflicts are likely to arise in semi-complex situations
@@ -97,30 +103,94 @@ public class VariableOperation<T> extends BaseOperation<T> {
 	 */
 	private static ThreadLocal<Stack<Integer>> rootStack = new ThreadLocal<Stack<Integer>>();
 	
-	private boolean isCollectionIterable(Object object) {
+	/**
+	 * Returned internally when the result was handed to a visitor rather than returned
+	 */
+	private static final Object VISITED = new Object(), STOPPED = new Object();
+	
+	private static Map<Class<?>, Boolean> collectionIterables = new ConcurrentHashMap<Class<?>, Boolean>();
+	
+	public static boolean isCollectionIterable(Object object) {
 		if (object == null) {
 			return false;
 		}
-		for (Class<?> ifaceClass : object.getClass().getInterfaces()) {
-			if (ifaceClass.getName().equals("be.nabu.glue.core.api.CollectionIterable")) {
-				return true;
+		Boolean isCollectionIterable = collectionIterables.get(object.getClass());
+		if (isCollectionIterable == null) {
+			isCollectionIterable = false;
+			for (Class<?> ifaceClass : object.getClass().getInterfaces()) {
+				if (ifaceClass.getName().equals("be.nabu.glue.core.api.CollectionIterable")) {
+					isCollectionIterable = true;
+					break;
+				}
 			}
+			collectionIterables.put(object.getClass(), isCollectionIterable);
 		}
-		return false;
+		return isCollectionIterable;
 	}
 	
 	@Override
 	public Object evaluate(T context) throws EvaluationException {
-		return evaluate(context, 0, false);
+		return evaluate(context, false);
 	}
 	
 	public Object evaluate(T context, boolean allowUndefined) throws EvaluationException {
-		return evaluate(context, 0, allowUndefined);
+		EvaluationListener listener = EvaluationListenerFactory.getInstance().getListener();
+		if (listener == null) {
+			return evaluate(context, 0, allowUndefined, null);
+		}
+		long started = System.nanoTime();
+		try {
+			Object result = evaluate(context, 0, allowUndefined, null);
+			listener.evaluated(this, System.nanoTime() - started, result, null);
+			return result;
+		}
+		catch (EvaluationException e) {
+			listener.evaluated(this, System.nanoTime() - started, null, e);
+			throw e;
+		}
+		catch (RuntimeException e) {
+			listener.evaluated(this, System.nanoTime() - started, null, e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Evaluates the path and hands the elements of the result to the visitor instead of building the result list
+	 * Filters at the end of the path and the steps after a filter feed the visitor directly, other results are visited element by element
+	 * Returns false if the visitor stopped the iteration
+	 */
+	public boolean visit(T context, ResultVisitor visitor) throws EvaluationException {
+		EvaluationListener listener = EvaluationListenerFactory.getInstance().getListener();
+		long started = listener == null ? 0 : System.nanoTime();
+		try {
+			Object result = evaluate(context, 0, false, visitor);
+			boolean completed = result == STOPPED ? false : result == VISITED || StreamedResult.visit(result, visitor);
+			if (listener != null) {
+				listener.evaluated(this, System.nanoTime() - started, null, null);
+			}
+			return completed;
+		}
+		catch (EvaluationException e) {
+			if (listener != null) {
+				listener.evaluated(this, System.nanoTime() - started, null, e);
+			}
+			throw e;
+		}
+		catch (RuntimeException e) {
+			if (listener != null) {
+				listener.evaluated(this, System.nanoTime() - started, null, e);
+			}
+			throw e;
+		}
 	}
 	
+	/**
+	 * The plan is calculated once the parts are known
+	 */
 	@Override
 	public void finish() {
-		// do nothing
+		plan = null;
+		getPlan();
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -152,13 +222,43 @@ public class VariableOperation<T> extends BaseOperation<T> {
 		return false;
 	}
 	
-	private Object evaluate(T context, int offset, boolean allowUndefined) throws EvaluationException {
-		getContextStack().push(context);
+	/**
+	 * Evaluates the operation against a context stack that was resolved up front with getCurrentContextStack()
+	 * This allows you to evaluate a lot of contexts in a row on the same thread without looking up the stack for each of them, note that the evaluation listeners are not notified
+	 */
+	public Object evaluate(Stack<T> contexts, T context) throws EvaluationException {
+		return evaluate(contexts, context, 0, false, null);
+	}
+	
+	private Object evaluate(T context, int offset, boolean allowUndefined, ResultVisitor visitor) throws EvaluationException {
+		return evaluate(getContextStack(), context, offset, allowUndefined, visitor);
+	}
+	
+	private Object evaluate(Stack<T> contexts, T context, int offset, boolean allowUndefined, ResultVisitor visitor) throws EvaluationException {
+		contexts.push(context);
 		try {
-			return evaluate(offset, allowUndefined);
+			return evaluate(contexts, offset, allowUndefined, visitor);
 		}
 		finally {
-			getContextStack().pop();
+			contexts.pop();
+		}
+	}
+	
+	/**
+	 * Evaluates an operation against an element the way a filter would, the parent is the context the filter is applied in
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static <T> Object evaluateFilter(Operation<T> filter, T parent, T element) throws EvaluationException {
+		if (contextStack.get() == null) {
+			contextStack.set(new Stack());
+		}
+		Stack<T> contexts = (Stack<T>) contextStack.get();
+		contexts.push(parent);
+		try {
+			return filter.evaluate(element);
+		}
+		finally {
+			contexts.pop();
 		}
 	}
 	
@@ -167,238 +267,353 @@ public class VariableOperation<T> extends BaseOperation<T> {
 	}
 	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private Object evaluate(int offset, boolean allowUndefined) throws EvaluationException {
-		Object object = null;
-		T context;
-		Stack<T> contexts = getContextStack();
-		int contextIndex = contexts.size() - 1;
-		// if you start off with an operation, you want to work from that result set
-		if (offset == 0 && getParts().get(offset).getType() == QueryPart.Type.OPERATION) {
-			context = contexts.get(contextIndex); 
-			object = ((Operation<T>) getParts().get(offset).getContent()).evaluate(context);
-		}
-		else {
-			String path = getParts().get(offset).getContent().toString();
-			// if the path is "." it does nothing, so we either simply evaluate the next (without adding context) or return the last context
-			if (path.equals(".")) {
-				if (offset >= getParts().size() - 1) {
-					throw new EvaluationException("The path can't end with '.'");
-				}
-				return evaluate(offset + 1, allowUndefined);
-			}
-			while (path.equals("..")) {
-				if (offset >= getParts().size() - 1) {
-					throw new EvaluationException("The path can't end with '..'");
-				}
-				if (contextIndex == 0) {
-					throw new EvaluationException("Referencing an invalid context");
+	private Object evaluate(Stack<T> contexts, int offset, boolean allowUndefined, ResultVisitor visitor) throws EvaluationException {
+		Step [] plan = getPlan();
+		// instead of recursing for each step, we push the new context and continue, they are all popped at the end
+		int pushed = 0;
+		try {
+			while (true) {
+				Object object = null;
+				T context;
+				int contextIndex = contexts.size() - 1;
+				Step step = plan[offset];
+				// if you start off with an operation, you want to work from that result set
+				if (offset == 0 && step.operation) {
+					context = contexts.get(contextIndex); 
+					object = ((Operation<T>) getParts().get(offset).getContent()).evaluate(context);
 				}
-				contextIndex--;
-				offset++;
-				path = getParts().get(offset).getContent().toString();
-			}
-			context = contexts.get(contextIndex);
-			// if it's not the first part, remove any leading "/"!
-			if (offset > 0 && path.startsWith("/")) {
-				path = path.substring(1);
-			}
-			// go back to the root
-			else if (offset == 0 && path.startsWith("/")) {
-				contextIndex = getCurrentRoot();
-				context = contexts.get(contextIndex);
-				path = path.substring(1);
-			}
-			// you can reference the item itself by using "$this"
-			object = "$this".equals(path) ? context : getAccessor().get(context, path);
-			if (offset == 0 && object == null) {
-				if (allowParentLookup) {
-					while (object == null && contextIndex > 0) {
+				else {
+					// if the path is "." it does nothing, so we either simply evaluate the next (without adding context) or return the last context
+					if (step.current) {
+						if (offset >= plan.length - 1) {
+							throw new EvaluationException("The path can't end with '.'");
+						}
+						offset++;
+						continue;
+					}
+					while (step.parent) {
+						if (offset >= plan.length - 1) {
+							throw new EvaluationException("The path can't end with '..'");
+						}
+						if (contextIndex == 0) {
+							throw new EvaluationException("Referencing an invalid context");
+						}
 						contextIndex--;
-						context = contexts.get(contextIndex);
-						object = getAccessor().get(context, path);	
+						offset++;
+						step = plan[offset];
 					}
-				}
-				else if (allowRootLookup && contextIndex > 0) {
-					contextIndex = 0;
 					context = contexts.get(contextIndex);
-					object = getAccessor().get(context, path);	
-				}
-			}
-			
-			// @2025-05-23: we want native support for undefined
-			if (allowUndefined && object == null) {
-				if (!getAccessor().hasValue(context, path)) {
-					return Reserved.UNDEFINED;
+					// go back to the root, for other parts the leading "/" is simply ignored
+					if (offset == 0 && step.absolute) {
+						contextIndex = getCurrentRoot();
+						context = contexts.get(contextIndex);
+					}
+					String path = step.name;
+					// you can reference the item itself by using "$this"
+					object = step.self ? context : getAccessor().get(context, path);
+					if (offset == 0 && object == null) {
+						if (allowParentLookup) {
+							while (object == null && contextIndex > 0) {
+								contextIndex--;
+								context = contexts.get(contextIndex);
+								object = getAccessor().get(context, path);	
+							}
+						}
+						else if (allowRootLookup && contextIndex > 0) {
+							contextIndex = 0;
+							context = contexts.get(contextIndex);
+							object = getAccessor().get(context, path);	
+						}
+					}
+					
+					// @2025-05-23: we want native support for undefined
+					if (allowUndefined && object == null) {
+						if (!getAccessor().hasValue(context, path)) {
+							return Reserved.UNDEFINED;
+						}
+					}
 				}
-			}
-		}
-		
-		// @2023-03-15: if we want to do queried list access (so NOT numeric), we want an empty collection instead of null
-		if (object == null) {
-			if (offset < getParts().size() - 1 && getParts().get(offset + 1).getType() == QueryPart.Type.OPERATION && !isNumericAccess(offset + 1)) {
-				return new ArrayList();
-			}
-			else {
-				return null;
-			}
-		}
-		// it's null or you have reached the end, just return what you get
-		if (object == null || offset == getParts().size() - 1) {
-			return object;
-		}		
-		if (object instanceof Map) {
-			// you have defined an index on the map, get a specific key
-			while (object instanceof Map && offset < getParts().size() - 1 && getParts().get(offset + 1).getType() == QueryPart.Type.OPERATION) {
-				Object key = ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate(context);
-				// if the key is not in the map and the first key of the map is a string, we assume all keys are strings and convert to it
-				// this can be broadened to support other types as well but the primary usecase is currently nabu where maps are only used with string keys
-				if (!((Map) object).containsKey(key) && ((Map) object).size() > 0 && ((Map) object).keySet().iterator().next() instanceof String) {
-					key = ConverterFactory.getInstance().getConverter().convert(key, String.class);
+				
+				// @2023-03-15: if we want to do queried list access (so NOT numeric), we want an empty collection instead of null
+				if (object == null) {
+					if (offset < plan.length - 1 && plan[offset + 1].operation && !plan[offset + 1].numeric) {
+						return new ArrayList();
+					}
+					else {
+						return null;
+					}
 				}
-				object = ((Map) object).get(key);
-				offset++;
-			}
-		}
-		// check if it's a list
-		if (object instanceof Collection || object instanceof Object[] || isCollectionIterable(object)) {
-			// if the next element is an operation, it is indexed
-			// if it returns a boolean, it has to be executed against each element in the list to filter
-			// otherwise if it's a number, you need access to a single element
-			boolean isConcatenatedResult = false;
-			while ((object instanceof Collection || object instanceof Object[] || object instanceof Iterable) && offset < getParts().size() - 1 && getParts().get(offset + 1).getType() == QueryPart.Type.OPERATION) {
-				// we assume that indexed operations will be fixed indexes so it will be a native operation
-				// this will not always be true but in a limited context (for which this is designed) this is the most likely scenario
-				// note that if it is _only_ a variable, we assume the variable is also a number, would be odd to have a boolean variable
-				if (isNumericAccess(offset + 1)) {
-					Number index = (Number) ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate(context);
-					if (index == null) {
-						throw new IllegalArgumentException("The index can not be null: " + getParts().get(offset + 1).getContent());
+				// it's null or you have reached the end, just return what you get
+				if (offset == plan.length - 1) {
+					return object;
+				}		
+				if (object instanceof Map) {
+					// you have defined an index on the map, get a specific key
+					while (object instanceof Map && offset < plan.length - 1 && plan[offset + 1].operation) {
+						Object key = ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate(context);
+						// if the key is not in the map and the first key of the map is a string, we assume all keys are strings and convert to it
+						// this can be broadened to support other types as well but the primary usecase is currently nabu where maps are only used with string keys
+						if (!((Map) object).containsKey(key) && ((Map) object).size() > 0 && ((Map) object).keySet().iterator().next() instanceof String) {
+							key = ConverterFactory.getInstance().getConverter().convert(key, String.class);
+						}
+						object = ((Map) object).get(key);
+						offset++;
 					}
-					if (object instanceof Iterable) {
-						Iterator iterator = ((Iterable) object).iterator();
-						for (long i = 0; i < index.longValue(); i++) {
-							if (iterator.hasNext()) {
-								iterator.next();
+				}
+				// check if it's a list
+				if (object instanceof Collection || object instanceof Object[] || isCollectionIterable(object)) {
+					// if the next element is an operation, it is indexed
+					// if it returns a boolean, it has to be executed against each element in the list to filter
+					// otherwise if it's a number, you need access to a single element
+					boolean isConcatenatedResult = false;
+					while ((object instanceof Collection || object instanceof Object[] || object instanceof Iterable) && offset < plan.length - 1 && plan[offset + 1].operation) {
+						// we assume that indexed operations will be fixed indexes so it will be a native operation
+						// this will not always be true but in a limited context (for which this is designed) this is the most likely scenario
+						// note that if it is _only_ a variable, we assume the variable is also a number, would be odd to have a boolean variable
+						if (plan[offset + 1].numeric) {
+							Number index = (Number) ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate(context);
+							if (index == null) {
+								throw new IllegalArgumentException("The index can not be null: " + getParts().get(offset + 1).getContent());
+							}
+							if (object instanceof Iterable) {
+								Iterator iterator = ((Iterable) object).iterator();
+								for (long i = 0; i < index.longValue(); i++) {
+									if (iterator.hasNext()) {
+										iterator.next();
+									}
+									else {
+										break;
+									}
+								}
+								object = iterator.hasNext() ? iterator.next() : null;
+								// resolve the object if it needs to
+								if (object instanceof Callable) {
+									try {
+										object = ((Callable) object).call();
+									}
+									catch (Exception e) {
+										throw new RuntimeException(e);
+									}
+								}
 							}
 							else {
-								break;
+								object = CollectionContextAccessor.listify(object);
+								object = index.intValue() < ((List) object).size() ? ((List) object).get(index.intValue()) : null;
 							}
+							// once you have added numeric access, it is no longer concatenated
+							isConcatenatedResult = false;
 						}
-						object = iterator.hasNext() ? iterator.next() : null;
-						// resolve the object if it needs to
-						if (object instanceof Callable) {
+						// once we have a boolean selection instead of indexed access, we need to resolve the iterable
+						else {
+							object = CollectionContextAccessor.listify(object);
+							isConcatenatedResult = true;
+							EvaluationListener listener = EvaluationListenerFactory.getInstance().getListener();
+							if (listener != null) {
+								listener.iterated(this, ((List) object).size());
+							}
+							Operation<T> filter = (Operation<T>) getParts().get(offset + 1).getContent();
+							// values that do not depend on the element are shared by all the elements
+							EvaluationScope scope = filter instanceof FilterScopeOperation ? EvaluationScope.open(filter, ((FilterScopeOperation<T>) filter).getSize()) : null;
+							// if the filter ends the path, the matching elements can go straight to the visitor
+							boolean visiting = visitor != null && offset + 1 == plan.length - 1;
+							List result = visiting ? null : new ArrayList();
 							try {
-								object = ((Callable) object).call();
+								for (Object child : (List) object) {
+									// the operation must return a boolean for each item
+									// if true, the item will be used for further evaluation
+									Boolean useIt = (Boolean) filter.evaluate((T) child);
+									if (useIt != null && useIt) {
+										if (!visiting) {
+											result.add(child);
+										}
+										else if (!visitor.visit(child)) {
+											return STOPPED;
+										}
+									}
+								}
+							}
+							finally {
+								if (scope != null) {
+									scope.close();
+								}
 							}
-							catch (Exception e) {
-								throw new RuntimeException(e);
+							if (visiting) {
+								return VISITED;
 							}
+							object = result;
 						}
+						offset++;
 					}
-					else {
-						object = CollectionContextAccessor.listify(object);
-						object = index.intValue() < ((List) object).size() ? ((List) object).get(index.intValue()) : null;
-					}
-					// once you have added numeric access, it is no longer concatenated
-					isConcatenatedResult = false;
-				}
-				// once we have a boolean selection instead of indexed access, we need to resolve the iterable
-				else {
-					object = CollectionContextAccessor.listify(object);
-					isConcatenatedResult = true;
-					List result = new ArrayList();
-					for (Object child : (List) object) {
-						// the operation must return a boolean for each item
-						// if true, the item will be used for further evaluation
-						Boolean useIt = (Boolean) ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate((T) child);
-						if (useIt != null && useIt) {
-							result.add(child);
+					if (offset < plan.length - 1) {
+						Step childStep = plan[offset + 1];
+						// syntax wise you can do this:
+						// myarray/$1
+						// myarrayofarrays[$0 == 'test']/$1
+						// the first one is indexed access to the array, the second one builds a result set in memory, then selects all the $1 from that resultset
+						// the second basically returns a list of all possible "$1" values whereas the first selects the "$1" value for a specific array
+						// this is why we have the boolean isConcatenatedResult that indicates which situation we are in
+						while (((object instanceof Collection || object instanceof Object[] || object instanceof Iterable) && (!isConcatenatedResult || neverUseConcatenationForDollarIndex) && !alwaysUseConcatenationForDollarIndex && childStep.dollarIndex) || object instanceof Map) {
+							if (object instanceof Iterable) {
+								object = CollectionContextAccessor.listify(object);
+							}
+							object = getAccessor().get((T) object, childStep.name);
+							if (offset == plan.length - 2) {
+								return object;
+							}
+							// increase the offset so further evaluations take this into account
+							else {
+								offset++;
+								childStep = plan[offset + 1];
+							}
+						}
+						if (object instanceof Collection || object instanceof Object[] || object instanceof Iterable) {
+							List results = visitor == null ? new ArrayList() : null;
+							// we just need to evaluate each subpart and add the result to the list
+							for (Object child : CollectionContextAccessor.listify(object)) {
+								if (child != null) {
+									Object childResult = evaluate(contexts, (T) child, offset + 1, allowUndefined, visitor);
+									// the child result is visited the same way it would have been added
+									if (visitor != null) {
+										if (childResult == STOPPED || (childResult != VISITED && !visitChild(childResult, visitor))) {
+											return STOPPED;
+										}
+									}
+									else if (childResult instanceof List)
+										results.addAll((List) childResult);
+									// otherwise, add it (even if null!)
+									else
+										results.add(childResult);
+								}
+							}
+							// return the list
+							return visitor == null ? results : VISITED;
+						}
+						// otherwise, keep evaluating
+						else {
+							contexts.push((T) object);
+							pushed++;
+							offset++;
+							continue;
 						}
 					}
-					object = result;
 				}
-				offset++;
-			}
-			if (offset < getParts().size() - 1) {
-				String childPath = getParts().get(offset + 1).getContent().toString();
-				if (childPath.startsWith("/")) {
-					childPath = childPath.substring(1);
+				// if the indexes were the last part, return the result
+				if (offset == plan.length - 1) {
+					return object;
 				}
-				// syntax wise you can do this:
-				// myarray/$1
-				// myarrayofarrays[$0 == 'test']/$1
-				// the first one is indexed access to the array, the second one builds a result set in memory, then selects all the $1 from that resultset
-				// the second basically returns a list of all possible "$1" values whereas the first selects the "$1" value for a specific array
-				// this is why we have the boolean isConcatenatedResult that indicates which situation we are in
-				while (((object instanceof Collection || object instanceof Object[] || object instanceof Iterable) && (!isConcatenatedResult || neverUseConcatenationForDollarIndex) && !alwaysUseConcatenationForDollarIndex && childPath.matches("^\\$[0-9]+$")) || object instanceof Map) {
-					if (object instanceof Iterable) {
-						object = CollectionContextAccessor.listify(object);
-					}
-					object = getAccessor().get((T) object, childPath);
-					if (offset == getParts().size() - 2) {
-						return object;
-					}
-					// increase the offset so further evaluations take this into account
-					else {
-						offset++;
-						childPath = getParts().get(offset + 1).getContent().toString();
-						if (childPath.startsWith("/")) {
-							childPath = childPath.substring(1);
+				// the next part is an operation but it is not a map or a list, try contextual access
+				else if (offset < plan.length - 1 && plan[offset + 1].operation) {
+					// you have defined an index on the map, get a specific key
+					while (offset < plan.length - 1 && plan[offset + 1].operation) {
+						Object key = ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate(context);
+						if (key == null) {
+							throw new EvaluationException("Could not resolve key: " + getParts().get(offset + 1).getContent());
 						}
+						object = getAccessor().get((T) object, key.toString());
+						offset++;
 					}
-				}
-				if (object instanceof Collection || object instanceof Object[] || object instanceof Iterable) {
-					List results = new ArrayList();
-					// we just need to evaluate each subpart and add the result to the list
-					for (Object child : CollectionContextAccessor.listify(object)) {
-						if (child != null) {
-							Object childResult = evaluate((T) child, offset + 1, allowUndefined);
-							if (childResult instanceof List)
-								results.addAll((List) childResult);
-							// otherwise, add it (even if null!)
-							else
-								results.add(childResult);
-						}
+					// if the indexes were the last part, return the result
+					if (offset == plan.length - 1) {
+						return object;
 					}
-					// return the list
-					return results;
 				}
 				// otherwise, keep evaluating
-				else {
-					return evaluate((T) object, offset + 1, allowUndefined);
-				}
+				contexts.push((T) object);
+				pushed++;
+				offset++;
 			}
 		}
-		// if the indexes were the last part, return the result
-		if (offset == getParts().size() - 1) {
-			return object;
+		finally {
+			for (int i = 0; i < pushed; i++) {
+				contexts.pop();
+			}
 		}
-		// the next part is an operation but it is not a map or a list, try contextual access
-		else if (offset < getParts().size() - 1 && getParts().get(offset + 1).getType() == QueryPart.Type.OPERATION) {
-			// you have defined an index on the map, get a specific key
-			while (offset < getParts().size() - 1 && getParts().get(offset + 1).getType() == QueryPart.Type.OPERATION) {
-				Object key = ((Operation<T>) getParts().get(offset + 1).getContent()).evaluate(context);
-				if (key == null) {
-					throw new EvaluationException("Could not resolve key: " + getParts().get(offset + 1).getContent());
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static boolean visitChild(Object childResult, ResultVisitor visitor) throws EvaluationException {
+		if (childResult instanceof List) {
+			for (Object element : (List) childResult) {
+				if (!visitor.visit(element)) {
+					return false;
 				}
-				object = getAccessor().get((T) object, key.toString());
-				offset++;
-			}
-			// if the indexes were the last part, return the result
-			if (offset == getParts().size() - 1) {
-				return object;
 			}
-			// otherwise, keep evaluating
-			else {
-				return evaluate((T) object, offset + 1, allowUndefined);
+			return true;
+		}
+		return visitor.visit(childResult);
+	}
+	
+	/**
+	 * Everything we can know about a part of the path without evaluating it
+	 */
+	private static class Step {
+		// whether the part is an operation (index or filter) rather than a name
+		private final boolean operation;
+		// for operations: whether it is an index rather than a filter
+		private final boolean numeric;
+		// "." and ".."
+		private final boolean current, parent;
+		// whether the part starts with a "/", for the first part this means we start from the root
+		private final boolean absolute;
+		// the name without the leading "/"
+		private final String name;
+		// whether the name refers to the context itself ($this) or to a position ($0, $1,...)
+		private final boolean self, dollarIndex;
+		
+		private Step(boolean operation, boolean numeric, String path) {
+			this.operation = operation;
+			this.numeric = numeric;
+			this.current = path.equals(".");
+			this.parent = path.equals("..");
+			this.absolute = path.startsWith("/");
+			this.name = absolute ? path.substring(1) : path;
+			this.self = "$this".equals(name);
+			this.dollarIndex = name.matches("^\\$[0-9]+$");
+		}
+	}
+	
+	private Step [] getPlan() {
+		Step [] plan = this.plan;
+		if (plan == null) {
+			plan = new Step[getParts().size()];
+			for (int i = 0; i < plan.length; i++) {
+				QueryPart part = getParts().get(i);
+				boolean operation = part.getType() == QueryPart.Type.OPERATION;
+				plan[i] = new Step(operation, operation && isNumericAccess(i), part.getContent().toString());
 			}
+			this.plan = plan;
 		}
-		// it's not a list, just recursively evaluate
-		else {
-			return evaluate((T) object, offset + 1, allowUndefined);
+		return plan;
+	}
+	
+	/**
+	 * Whether the part at the given index is a filter that is evaluated for each element of a collection
+	 */
+	public boolean isFilter(int index) {
+		Step [] plan = getPlan();
+		return index > 0 && plan[index].operation && !plan[index].numeric;
+	}
+	
+	/**
+	 * Whether the path starts from the root ("/") or from a parent ("..") rather than the current context
+	 */
+	public boolean isAnchored() {
+		Step [] plan = getPlan();
+		return plan.length > 0 && (plan[0].absolute || plan[0].parent);
+	}
+	
+	/**
+	 * Whether the path contains a filter, such a path would build a list of the matching elements that can be streamed to a visitor instead
+	 */
+	public boolean isStreamable() {
+		for (int i = 0; i < getParts().size(); i++) {
+			if (isFilter(i)) {
+				return true;
+			}
 		}
+		return false;
 	}
-
+	
 	@Override
 	public OperationType getType() {
 		return OperationType.VARIABLE;
@@ -448,6 +663,19 @@ public class VariableOperation<T> extends BaseOperation<T> {
 		return (Stack<T>) contextStack.get();
 	}
 	
+	/**
+	 * The context stack of the current thread
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Stack<T> getCurrentContextStack() {
+		Stack<?> stack = contextStack.get();
+		if (stack == null) {
+			stack = new Stack<T>();
+			contextStack.set(stack);
+		}
+		return (Stack<T>) stack;
+	}
+	
 	protected static Integer getCurrentRoot() {
 		if (rootStack.get() == null) {
 			rootStack.set(new Stack<Integer>());
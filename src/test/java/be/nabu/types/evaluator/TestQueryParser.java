@@ -17,18 +17,50 @@
 
 package be.nabu.types.evaluator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
+import be.nabu.libs.evaluator.AdaptiveReorderer;
+import be.nabu.libs.evaluator.BatchEvaluator;
+import be.nabu.libs.evaluator.ChainFlattener;
 import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.EvaluationListenerFactory;
+import be.nabu.libs.evaluator.EvaluationUtils;
+import be.nabu.libs.evaluator.ExpressionCompiler;
+import be.nabu.libs.evaluator.FilterHoister;
+import be.nabu.libs.evaluator.IncrementalParser;
+import be.nabu.libs.evaluator.MembershipRewriter;
+import be.nabu.libs.evaluator.MultiExpressionEvaluator;
+import be.nabu.libs.evaluator.OperationInterner;
+import be.nabu.libs.evaluator.OperationReader;
+import be.nabu.libs.evaluator.OperationWriter;
+import be.nabu.libs.evaluator.OperationProfiler;
 import be.nabu.libs.evaluator.PathAnalyzer;
+import be.nabu.libs.evaluator.PreparedExpression;
 import be.nabu.libs.evaluator.QueryParser;
 import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.RuleIndex;
+import be.nabu.libs.evaluator.SubexpressionEliminator;
+import be.nabu.libs.evaluator.annotations.Pure;
 import be.nabu.libs.evaluator.api.Analyzer;
 import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.impl.AdaptiveLogicalOperation;
+import be.nabu.libs.evaluator.impl.EvaluationStatistics;
+import be.nabu.libs.evaluator.impl.MethodOperation;
 import be.nabu.libs.evaluator.impl.PlainOperationProvider;
+import be.nabu.libs.evaluator.impl.VariableOperation;
 
 public class TestQueryParser extends TestCase {
 	
@@ -197,6 +229,688 @@ public class TestQueryParser extends TestCase {
 		assertEquals("a", operation.evaluate(null));
 	}
 	
+	public void testPureMethods() throws ParseException, EvaluationException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new CustomMethodProvider());
+		QueryParser parser = QueryParser.getInstance();
+		PureMethods.invocations = 0;
+		// constant arguments are calculated when the operation is built
+		Operation<Object> operation = analyzer.analyze(parser.parse("square(3) + 1"));
+		assertEquals(1, PureMethods.invocations);
+		assertEquals(10, operation.evaluate(null));
+		assertEquals(10, operation.evaluate(null));
+		assertEquals(1, PureMethods.invocations);
+		
+		// recurring arguments are memoized
+		operation = analyzer.analyze(parser.parse("square(value)"));
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("value", 4);
+		assertEquals(16, operation.evaluate(context));
+		assertEquals(16, operation.evaluate(context));
+		assertEquals(2, PureMethods.invocations);
+		context.put("value", 5);
+		assertEquals(25, operation.evaluate(context));
+		assertEquals(3, PureMethods.invocations);
+	}
+	
+	public void testSubexpressionElimination() throws ParseException, EvaluationException {
+		PlainOperationProvider provider = new PlainOperationProvider();
+		Operation<Object> operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("score > 10 && score < 50 || score == 0"));
+		Operation<Object> optimized = new SubexpressionEliminator<Object>(provider).optimize(operation);
+		Score score = new Score(20);
+		assertEquals(true, operation.evaluate(score));
+		assertEquals(2, score.invocations);
+		score.invocations = 0;
+		assertEquals(true, optimized.evaluate(score));
+		assertEquals(1, score.invocations);
+		// the optimized operation must not hold on to values from a previous evaluation
+		assertEquals(false, optimized.evaluate(new Score(60)));
+		assertEquals(operation.toString(), optimized.toString());
+		
+		// the filter of a variable operation is evaluated per element, it can not be cached for the whole evaluation
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("numbers", Arrays.asList(1, 5, 10));
+		operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("numbers[$this * 2 > 9 && $this * 2 < 30]"));
+		optimized = new SubexpressionEliminator<Object>(provider).optimize(operation);
+		assertEquals(Arrays.asList(5, 10), operation.evaluate(context));
+		assertEquals(Arrays.asList(5, 10), optimized.evaluate(context));
+	}
+	
+	public void testAdaptiveReordering() throws ParseException, EvaluationException {
+		PlainOperationProvider provider = new PlainOperationProvider();
+		Operation<Object> operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("score > 10 && score > 100"));
+		AdaptiveReorderer<Object> reorderer = new AdaptiveReorderer<Object>(provider);
+		reorderer.setInterval(32);
+		// every measured operand costs the same so only the selectivity decides the order
+		reorderer.setClock(new AdaptiveLogicalOperation.Clock() {
+			private long time;
+			@Override
+			public long nanoTime() {
+				return time++;
+			}
+		});
+		Operation<Object> optimized = reorderer.optimize(operation);
+		assertEquals(operation.toString(), optimized.toString());
+		Score score = new Score(50);
+		for (int i = 0; i < 256; i++) {
+			assertEquals(false, optimized.evaluate(score));
+		}
+		// the second check is always decisive so it should be evaluated first
+		score.invocations = 0;
+		assertEquals(false, optimized.evaluate(score));
+		assertEquals(1, score.invocations);
+		assertEquals(true, optimized.evaluate(new Score(200)));
+		assertEquals(false, optimized.evaluate(new Score(5)));
+	}
+	
+	public void testChainFlattening() throws ParseException, EvaluationException {
+		PlainOperationProvider provider = new PlainOperationProvider();
+		ChainFlattener<Object> flattener = new ChainFlattener<Object>(provider);
+		Operation<Object> operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("\"a\" + 1 + 2 + 3"));
+		Operation<Object> flattened = flattener.optimize(operation);
+		assertEquals(7, flattened.getParts().size());
+		assertEquals(operation.toString(), flattened.toString());
+		assertEquals("a123", flattened.evaluate(null));
+		
+		Score score = new Score(50);
+		operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("score > 100 || score > 10 || score > 20"));
+		flattened = flattener.optimize(operation);
+		assertEquals(5, flattened.getParts().size());
+		assertEquals(true, flattened.evaluate(score));
+		// the last operand is never evaluated
+		assertEquals(2, score.invocations);
+		
+		// long generated rules should not overflow the stack
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			builder.append(i == 0 ? "" : " || ").append("score == ").append(i);
+		}
+		flattened = flattener.optimize(new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse(builder.toString())));
+		assertEquals(true, flattened.evaluate(new Score(9999)));
+		assertEquals(false, flattened.evaluate(new Score(10000)));
+	}
+	
+	public void testMembershipRewriting() throws ParseException, EvaluationException {
+		PlainOperationProvider provider = new PlainOperationProvider();
+		Operation<Object> operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("score == 1 || score == 2 || score == 3 || score == 4 || score > 100"));
+		Operation<Object> optimized = new MembershipRewriter<Object>(provider).optimize(operation);
+		assertEquals(operation.toString(), optimized.toString());
+		// the equalities are combined, the last comparison is kept as is
+		assertEquals(3, optimized.getParts().size());
+		Score score = new Score(4);
+		assertEquals(true, optimized.evaluate(score));
+		assertEquals(1, score.invocations);
+		assertEquals(false, optimized.evaluate(new Score(5)));
+		assertEquals(true, optimized.evaluate(new Score(200)));
+		
+		Map<String, Object> context = new HashMap<String, Object>();
+		operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("value == 'A' || value == 'B' || value == 2"));
+		optimized = new MembershipRewriter<Object>(provider).optimize(operation);
+		context.put("value", "B");
+		assertEquals(true, optimized.evaluate(context));
+		context.put("value", "2");
+		assertEquals(true, optimized.evaluate(context));
+		context.put("value", 2L);
+		assertEquals(operation.evaluate(context), optimized.evaluate(context));
+		context.put("value", null);
+		assertEquals(false, optimized.evaluate(context));
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testFilterHoisting() throws ParseException, EvaluationException {
+		PlainOperationProvider provider = new PlainOperationProvider();
+		Operation<Object> operation = new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("items[score > /limit/score * 2]"));
+		Operation<Object> optimized = new FilterHoister<Object>(provider).optimize(operation);
+		assertEquals(operation.toString(), optimized.toString());
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("items", Arrays.asList(new Score(5), new Score(50), new Score(500)));
+		Score limit = new Score(10);
+		context.put("limit", limit);
+		assertEquals(2, ((List<Object>) operation.evaluate(context)).size());
+		assertEquals(3, limit.invocations);
+		limit.invocations = 0;
+		assertEquals(2, ((List<Object>) optimized.evaluate(context)).size());
+		assertEquals(1, limit.invocations);
+		// every invocation of the filter starts over
+		context.put("limit", new Score(100));
+		assertEquals(1, ((List<Object>) optimized.evaluate(context)).size());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testSemiJoin() throws ParseException, EvaluationException {
+		PlainOperationProvider provider = new PlainOperationProvider();
+		Map<String, Object> context = new HashMap<String, Object>();
+		Score score = new Score(50);
+		context.put("items", Arrays.asList(new Score(5), score, new Score(500)));
+		List<Score> limits = Arrays.asList(new Score(50), new Score(60), new Score(70));
+		context.put("limits", limits);
+		
+		Operation<Object> operation = new FilterHoister<Object>(provider).optimize(new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("items[score # /limits/score]")));
+		assertEquals(Arrays.asList(score), operation.evaluate(context));
+		// the collection is only resolved once for all the items
+		for (Score limit : limits) {
+			assertEquals(1, limit.invocations);
+		}
+		
+		operation = new FilterHoister<Object>(provider).optimize(new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("items[score !# /limits/score]")));
+		assertEquals(2, ((List<Object>) operation.evaluate(context)).size());
+		
+		// the values are converted to the type of the element
+		context.put("allowed", Arrays.asList("500", "test", null));
+		operation = new FilterHoister<Object>(provider).optimize(new PathAnalyzer<Object>(provider).analyze(QueryParser.getInstance().parse("items[score # /allowed]")));
+		assertEquals(1, ((List<Object>) operation.evaluate(context)).size());
+	}
+	
+	public void testAggregates() throws ParseException, EvaluationException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		QueryParser parser = QueryParser.getInstance();
+		Map<String, Object> context = new HashMap<String, Object>();
+		List<Object> orders = new ArrayList<Object>();
+		for (int i = 1; i <= 10; i++) {
+			Map<String, Object> order = new HashMap<String, Object>();
+			order.put("status", i % 2 == 0 ? "OPEN" : "CLOSED");
+			order.put("amount", i);
+			orders.add(order);
+		}
+		context.put("orders", orders);
+		assertEquals(30l, analyzer.analyze(parser.parse("sum(orders[status == 'OPEN']/amount)")).evaluate(context));
+		assertEquals(5, analyzer.analyze(parser.parse("count(orders[status == 'OPEN'])")).evaluate(context));
+		assertEquals(5.5, analyzer.analyze(parser.parse("avg(orders/amount)")).evaluate(context));
+		assertEquals(2, analyzer.analyze(parser.parse("min(orders[status == 'OPEN']/amount)")).evaluate(context));
+		assertEquals(10, analyzer.analyze(parser.parse("max(orders[status == 'OPEN']/amount)")).evaluate(context));
+		// the filter can still refer to the parent context
+		context.put("minimum", 7);
+		assertEquals(27l, analyzer.analyze(parser.parse("sum(orders[amount > ../minimum]/amount)")).evaluate(context));
+		assertNull(analyzer.analyze(parser.parse("avg(orders[status == 'UNKNOWN']/amount)")).evaluate(context));
+		
+		// lazy series are resolved while they are aggregated
+		List<Object> series = new ArrayList<Object>();
+		for (int i = 0; i < 3; i++) {
+			final double value = i + 0.5;
+			series.add(new java.util.concurrent.Callable<Object>() {
+				@Override
+				public Object call() {
+					return value;
+				}
+			});
+		}
+		context.put("series", (Iterable<Object>) series);
+		assertEquals(4.5, analyzer.analyze(parser.parse("sum(series)")).evaluate(context));
+		assertEquals(3, analyzer.analyze(parser.parse("count(series)")).evaluate(context));
+		// a long that overflows continues as a big decimal
+		context.put("large", new Object[] { Long.MAX_VALUE, 1 });
+		assertEquals(new java.math.BigDecimal(Long.MAX_VALUE).add(java.math.BigDecimal.ONE), analyzer.analyze(parser.parse("sum(large)")).evaluate(context));
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testCollectionMethods() throws ParseException, EvaluationException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		QueryParser parser = QueryParser.getInstance();
+		Map<String, Object> context = new HashMap<String, Object>();
+		List<Object> orders = new ArrayList<Object>();
+		int [] amounts = new int [] { 5, 3, 9, 3, 7 };
+		for (int i = 0; i < amounts.length; i++) {
+			Map<String, Object> order = new HashMap<String, Object>();
+			order.put("id", i);
+			order.put("customer", i % 2 == 0 ? "a" : "b");
+			order.put("amount", amounts[i]);
+			orders.add(order);
+		}
+		context.put("orders", orders);
+		
+		assertEquals(Arrays.asList(3, 3, 5, 7, 9), analyzer.analyze(parser.parse("sortBy(orders, 'amount')/amount")).evaluate(context));
+		// the sort is stable
+		assertEquals(Arrays.asList(1, 3), analyzer.analyze(parser.parse("sortBy(orders, 'amount')[amount == 3]/id")).evaluate(context));
+		assertEquals(Arrays.asList(9, 7, 5, 3, 3), analyzer.analyze(parser.parse("sortBy(orders, 'amount', true)/amount")).evaluate(context));
+		assertEquals(Arrays.asList(9, 7), analyzer.analyze(parser.parse("topN(orders, 'amount', 2)/amount")).evaluate(context));
+		assertEquals(Arrays.asList(1, 3, 0), analyzer.analyze(parser.parse("topN(orders, 'amount', 3, true)/id")).evaluate(context));
+		assertEquals(Arrays.asList(0, 1, 2, 4), analyzer.analyze(parser.parse("distinct(orders, 'amount')/id")).evaluate(context));
+		assertEquals(Arrays.asList(5, 3, 9, 7), analyzer.analyze(parser.parse("distinct(orders/amount)")).evaluate(context));
+		
+		Map<Object, List<Object>> groups = (Map<Object, List<Object>>) analyzer.analyze(parser.parse("groupBy(orders[amount > 1], 'customer')")).evaluate(context);
+		assertEquals(Arrays.asList("a", "b"), new ArrayList<Object>(groups.keySet()));
+		assertEquals(3, groups.get("a").size());
+		assertEquals(2, groups.get("b").size());
+	}
+	
+	public void testQuantifiers() throws ParseException, EvaluationException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		QueryParser parser = QueryParser.getInstance();
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("numbers", Arrays.asList(1, 5, 10));
+		context.put("threshold", 4);
+		assertEquals(true, analyzer.analyze(parser.parse("any(numbers, $this > ../threshold)")).evaluate(context));
+		assertEquals(false, analyzer.analyze(parser.parse("all(numbers, $this > ../threshold)")).evaluate(context));
+		assertEquals(true, analyzer.analyze(parser.parse("none(numbers, $this > 10)")).evaluate(context));
+		assertEquals(true, analyzer.analyze(parser.parse("all(numbers[$this > ../threshold], $this > ../threshold)")).evaluate(context));
+		// like a filter, a predicate that is null does not match
+		assertEquals(true, analyzer.analyze(parser.parse("none(numbers, ../missing)")).evaluate(context));
+		// without a predicate the values themselves are tested
+		context.put("flags", Arrays.asList(true, false));
+		assertEquals(true, analyzer.analyze(parser.parse("any(flags)")).evaluate(context));
+		assertEquals(false, analyzer.analyze(parser.parse("all(flags)")).evaluate(context));
+		assertEquals(false, analyzer.analyze(parser.parse("any(numbers[$this > 10])")).evaluate(context));
+		
+		// lazy series stop at the first decisive element
+		final int [] resolved = new int[1];
+		List<Object> series = new ArrayList<Object>();
+		for (int i = 0; i < 10; i++) {
+			final int value = i;
+			series.add(new java.util.concurrent.Callable<Object>() {
+				@Override
+				public Object call() {
+					resolved[0]++;
+					return value;
+				}
+			});
+		}
+		context.put("series", (Iterable<Object>) series);
+		assertEquals(true, analyzer.analyze(parser.parse("any(series, $this == 2)")).evaluate(context));
+		assertEquals(3, resolved[0]);
+		
+		// the predicate is not hoisted out of an outer filter, ".." refers to the element of that filter
+		Map<String, Object> first = new HashMap<String, Object>();
+		first.put("limit", 3);
+		first.put("values", Arrays.asList(1, 2));
+		Map<String, Object> second = new HashMap<String, Object>();
+		second.put("limit", 1);
+		second.put("values", Arrays.asList(1, 2));
+		context.put("groups", Arrays.asList(first, second));
+		Operation<Object> operation = new FilterHoister<Object>(new PlainOperationProvider()).optimize(analyzer.analyze(parser.parse("groups[all(values, $this < ../limit)]")));
+		assertEquals(Arrays.asList(first), operation.evaluate(context));
+	}
+	
+	public void testBatchEvaluation() throws ParseException, EvaluationException {
+		Operation<Object> operation = new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("score * 2"));
+		List<Object> contexts = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			contexts.add(new Score(i));
+		}
+		// a context the operation can not handle
+		contexts.set(50, "test");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			BatchEvaluator<Object> evaluator = new BatchEvaluator<Object>(operation, executor);
+			evaluator.setChunkSize(7);
+			BatchEvaluator.BatchResult result = evaluator.evaluateAll(contexts);
+			assertEquals(100, result.size());
+			assertEquals(198, result.getResult(99));
+			assertEquals(0, result.getResult(0));
+			assertTrue(result.hasErrors());
+			assertNotNull(result.getError(50));
+			assertNull(result.getError(51));
+		}
+		finally {
+			executor.shutdown();
+		}
+		
+		// paths are evaluated against the context stack of the thread directly, it must be left as it was
+		Operation<Object> path = new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("tests[someValue != 'b1']/someValue"));
+		BatchEvaluator.BatchResult result = new BatchEvaluator<Object>(path).evaluateAll(Arrays.<Object>asList(new Test("a", "b", "c"), new Test("b", "d")));
+		assertEquals(Arrays.asList("a1", "c1"), result.getResult(0));
+		assertEquals(Arrays.asList("d1"), result.getResult(1));
+		assertTrue(VariableOperation.getCurrentContextStack().isEmpty());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testMultiExpressionEvaluation() throws ParseException, EvaluationException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		QueryParser parser = QueryParser.getInstance();
+		Map<String, Object> address = new HashMap<String, Object>();
+		address.put("city", "Antwerp");
+		Map<String, Object> customer = new HashMap<String, Object>();
+		customer.put("name", "john");
+		customer.put("address", address);
+		customer.put("tags", new String[] { "a", "b" });
+		final int [] lookups = new int[1];
+		@SuppressWarnings("serial")
+		Map<String, Object> order = new HashMap<String, Object>() {
+			@Override
+			public Object get(Object key) {
+				if ("customer".equals(key)) {
+					lookups[0]++;
+				}
+				return super.get(key);
+			}
+		};
+		order.put("customer", customer);
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("order", order);
+		MultiExpressionEvaluator<Object> evaluator = new MultiExpressionEvaluator<Object>(
+			analyzer.analyze(parser.parse("order/customer/name")),
+			analyzer.analyze(parser.parse("order/customer/address/city")),
+			analyzer.analyze(parser.parse("order/customer/tags[1]")),
+			analyzer.analyze(parser.parse("order/customer/missing/city")),
+			analyzer.analyze(parser.parse("order/customer/name == 'john'"))
+		);
+		List<Object> results = evaluator.evaluate(context);
+		assertEquals("john", results.get(0));
+		assertEquals("Antwerp", results.get(1));
+		assertEquals("b", results.get(2));
+		assertNull(results.get(3));
+		assertEquals(true, results.get(4));
+		
+		// the shared prefix of the simple paths is only resolved once
+		evaluator = new MultiExpressionEvaluator<Object>(
+			analyzer.analyze(parser.parse("order/customer/name")),
+			analyzer.analyze(parser.parse("order/customer/address/city")),
+			analyzer.analyze(parser.parse("order/customer/missing/city"))
+		);
+		lookups[0] = 0;
+		results = evaluator.evaluate(context);
+		assertEquals(Arrays.asList("john", "Antwerp", null), results);
+		assertEquals(1, lookups[0]);
+		// compared to once per path when evaluated separately
+		lookups[0] = 0;
+		analyzer.analyze(parser.parse("order/customer/name")).evaluate(context);
+		analyzer.analyze(parser.parse("order/customer/address/city")).evaluate(context);
+		assertEquals(2, lookups[0]);
+	}
+	
+	public void testRuleIndex() throws ParseException, EvaluationException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		QueryParser parser = QueryParser.getInstance();
+		List<Operation<Object>> rules = new ArrayList<Operation<Object>>();
+		for (int i = 0; i < 100; i++) {
+			rules.add(analyzer.analyze(parser.parse("type == 'type" + i + "' && amount > " + (i * 10))));
+		}
+		rules.add(analyzer.analyze(parser.parse("type == 'a' || type == 'b'")));
+		rules.add(analyzer.analyze(parser.parse("amount >= 995")));
+		// not indexable
+		rules.add(analyzer.analyze(parser.parse("amount - 1 == 999")));
+		RuleIndex<Object> index = new RuleIndex<Object>(rules);
+		
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("type", "type5");
+		context.put("amount", 1000);
+		assertEquals(3, index.getCandidates(context).cardinality());
+		assertEquals(Arrays.asList(5, 101, 102), index.match(context));
+		
+		context.put("type", "b");
+		context.put("amount", 10);
+		assertEquals(Arrays.asList(100), index.match(context));
+		
+		// the literals are converted to the type of the value
+		context.put("amount", new java.math.BigDecimal("995.00"));
+		assertEquals(Arrays.asList(100, 101), index.match(context));
+	}
+	
+	public void testEvaluationStatistics() throws ParseException, EvaluationException {
+		EvaluationStatistics statistics = new EvaluationStatistics();
+		EvaluationListenerFactory.getInstance().addListener(statistics);
+		try {
+			Operation<Object> operation = new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("score * 2 > 10"));
+			for (int i = 0; i < 10; i++) {
+				operation.evaluate(new Score(i));
+			}
+			assertEquals(1, statistics.getAnalyzed().getCount());
+			assertEquals(10, statistics.getEvaluated().get(operation.toString()).getCount());
+			// the child operations are tracked as well
+			assertEquals(10, statistics.getEvaluated().get("score").getCount());
+		}
+		finally {
+			EvaluationListenerFactory.getInstance().removeListener(statistics);
+		}
+	}
+	
+	public void testProfiling() throws ParseException, EvaluationException {
+		Operation<Object> operation = new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("tests[someValue != 'b1']/someValue"));
+		OperationProfiler.Profile profile = OperationProfiler.profile(operation, (Object) new Test("a", "b", "c"));
+		assertEquals(Arrays.asList("a1", "c1"), profile.getResult());
+		assertEquals(1, profile.getRoot().getCount());
+		assertEquals(3, profile.getRoot().getItems());
+		// the predicate is evaluated for each item
+		assertEquals(3, profile.getRoot().getChildren().get(0).getCount());
+		assertTrue(profile.getRoot().getTotal() >= profile.getRoot().getSelf());
+	}
+	
+	public void testCharSequenceParsing() throws ParseException, EvaluationException {
+		char [] script = "ignored: a +  -2 * 3 :ignored".toCharArray();
+		List<QueryPart> parts = QueryParser.getInstance().parse(script, 9, 11);
+		assertEquals(5, parts.size());
+		// the sign is merged with the number
+		assertEquals(-2, parts.get(2).getContent());
+		assertEquals("-2", parts.get(2).getToken().getContent());
+		assertEquals("  ", parts.get(2).getToken().getPreamble());
+		Operation<Object> operation = new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(parts);
+		Map<String, Object> context = new HashMap<String, Object>();
+		context.put("a", 10);
+		assertEquals(4, operation.evaluate(context));
+	}
+	
+	public void testSerialization() throws ParseException, EvaluationException, IOException {
+		Analyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		Map<String, Operation<Object>> operations = new LinkedHashMap<String, Operation<Object>>();
+		for (String query : new String[] { "score * -2 + 1.5 > 10b", "tests[someValue != 'b1']/someValue", "substring(\"test\", 1) == null" }) {
+			operations.put(query, analyzer.analyze(QueryParser.getInstance().parse(query)));
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new OperationWriter().write(operations, output);
+		Map<String, Operation<Object>> read = new OperationReader<Object>(new PlainOperationProvider()).read(ByteBuffer.wrap(output.toByteArray()));
+		assertEquals(operations.keySet(), read.keySet());
+		for (String query : operations.keySet()) {
+			assertEquals(operations.get(query).toString(), read.get(query).toString());
+		}
+		assertEquals(Arrays.asList("a1", "c1"), read.get("tests[someValue != 'b1']/someValue").evaluate(new Test("a", "b", "c")));
+		assertEquals(false, read.get("substring(\"test\", 1) == null").evaluate(null));
+		
+		// a truncated or corrupted bundle is reported as such
+		byte [] bytes = output.toByteArray();
+		for (int i = 0; i < bytes.length; i++) {
+			assertCorrupt(Arrays.copyOf(bytes, i));
+			for (byte value : new byte[] { -1, -128, 0, 127 }) {
+				byte [] corrupted = bytes.clone();
+				corrupted[i] = value;
+				assertCorrupt(corrupted);
+			}
+		}
+		
+		// parameters only have a value in their prepared expression
+		try {
+			new OperationWriter().write(new PreparedExpression<Object>("score == ?", new PlainOperationProvider()).getOperation(), new ByteArrayOutputStream());
+			fail("Parameters can not be serialized");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	// some changes still result in a valid bundle, the others must be reported as an IOException
+	private void assertCorrupt(byte [] bytes) throws ParseException {
+		try {
+			new OperationReader<Object>(new PlainOperationProvider()).read(ByteBuffer.wrap(bytes));
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	public void testCompileAll() throws InterruptedException, ParseException {
+		ExpressionCompiler<Object> compiler = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+		List<String> expressions = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			expressions.add("score * " + i + " > 10");
+		}
+		expressions.add("score >");
+		ExpressionCompiler.CompilationResult<Object> result = compiler.compileAll(expressions);
+		assertEquals(50, result.getOperations().size());
+		assertEquals(1, result.getErrors().size());
+		assertTrue(result.getErrors().containsKey("score >"));
+		assertSame(result.getOperations().get("score * 3 > 10"), compiler.compile("score * 3 > 10"));
+		assertEquals(0, compiler.warmUp(Arrays.<Object>asList(new Score(1), new Score(2)), 10));
+	}
+	
+	public void testPreparedExpressions() throws ParseException, EvaluationException {
+		PreparedExpression<Object> expression = new PreparedExpression<Object>("score > ? && score < ?max || score == ?max * 2", new PlainOperationProvider());
+		assertEquals(Arrays.asList(null, "max"), expression.getParameters());
+		assertEquals(true, expression.evaluate(new Score(20), 10, 50));
+		assertEquals(false, expression.evaluate(new Score(60), 10, 50));
+		assertEquals(true, expression.evaluate(new Score(100), 10, 50));
+		assertEquals(true, expression.bind(10, 30).evaluate(new Score(60)));
+		try {
+			expression.evaluate(new Score(20), new HashMap<String, Object>());
+			fail("The positional parameter is not bound");
+		}
+		catch (EvaluationException e) {
+			// expected
+		}
+		
+		// pure methods must not be folded with a parameter
+		expression = new PreparedExpression<Object>("substring(?value, 1)", new PlainOperationProvider());
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("value", "test");
+		assertEquals("est", expression.evaluate(null, values));
+		
+		ExpressionCompiler<Object> compiler = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+		compiler.setAutoParameterize(true);
+		Operation<Object> first = compiler.compile("score == 20");
+		Operation<Object> second = compiler.compile("score  ==  30");
+		assertEquals(true, first.evaluate(new Score(20)));
+		assertEquals(false, second.evaluate(new Score(20)));
+		assertEquals(true, second.evaluate(new Score(30)));
+		assertEquals(first.toString(), second.toString());
+		// both share the same prepared expression which is warmed up once per iteration
+		Score score = new Score(20);
+		assertEquals(0, compiler.warmUp(Arrays.<Object>asList(score), 3));
+		assertEquals(3, score.invocations);
+		
+		// outside of a prepared expression a parameter has no value
+		try {
+			new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("a == ?"));
+			fail("Parameters are only allowed in prepared expressions");
+		}
+		catch (ParseException e) {
+			// expected
+		}
+	}
+	
+	public void testCompaction() throws ParseException, EvaluationException {
+		ExpressionCompiler<Object> compiler = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+		compiler.setCompact(true);
+		compiler.setDropTokens(true);
+		Operation<Object> first = compiler.compile("score * 3 > 10 && substring(\"test\", 1) == \"est\"");
+		Operation<Object> second = compiler.compile("score > 10");
+		assertEquals(true, first.evaluate(new Score(4)));
+		assertEquals(false, second.evaluate(new Score(4)));
+		assertNull(first.getParts().get(1).getToken());
+		// the path segments are interned so both operations share them
+		Operation<?> firstVariable = (Operation<?>) ((Operation<?>) ((Operation<?>) first.getParts().get(0).getContent()).getParts().get(0).getContent()).getParts().get(0).getContent();
+		Operation<?> secondVariable = (Operation<?>) second.getParts().get(0).getContent();
+		assertSame(firstVariable.getParts().get(0).getContent(), secondVariable.getParts().get(0).getContent());
+	}
+	
+	public void testInterning() throws ParseException, EvaluationException {
+		ExpressionCompiler<Object> compiler = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+		OperationInterner<Object> interner = new OperationInterner<Object>();
+		compiler.setInterner(interner);
+		Operation<Object> first = compiler.compile("score * 3 > 10 && score < 50");
+		Operation<Object> second = compiler.compile("score < 50 || score * 3 > 10");
+		Operation<Object> third = compiler.compile("score  <  50");
+		assertTrue(EvaluationUtils.isStructurallyEqual(third, new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("score < 50"))));
+		assertSame(third, second.getParts().get(0).getContent());
+		assertSame(first.getParts().get(0).getContent(), second.getParts().get(2).getContent());
+		assertEquals(true, first.evaluate(new Score(4)));
+		assertEquals(true, second.evaluate(new Score(60)));
+		int size = interner.size();
+		compiler.compile("score < 50 || score * 3 > 10");
+		assertEquals(size, interner.size());
+		
+		// prepared expressions without literals use the shared operation
+		Operation<Object> shared = compiler.compile("score < limit");
+		ExpressionCompiler<Object> parameterizer = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+		parameterizer.setAutoParameterize(true);
+		parameterizer.setInterner(interner);
+		assertSame(shared.getParts().get(1), parameterizer.compile("score  <  limit").getParts().get(1));
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testStructuralSharingClone() throws ParseException, EvaluationException {
+		Operation<Object> operation = new PathAnalyzer<Object>(new PlainOperationProvider()).analyze(QueryParser.getInstance().parse("square(score) > 10 && score < 50"));
+		assertSame(operation, EvaluationUtils.clone(operation, new PlainOperationProvider()));
+		Operation<Object> clone = EvaluationUtils.clone(operation, new CustomMethodProvider());
+		assertNotSame(operation, clone);
+		// only the method and its ancestors differ
+		assertNotSame(operation.getParts().get(0).getContent(), clone.getParts().get(0).getContent());
+		assertSame(operation.getParts().get(2).getContent(), clone.getParts().get(2).getContent());
+		assertSame(((Operation<Object>) operation.getParts().get(0).getContent()).getParts().get(2), ((Operation<Object>) clone.getParts().get(0).getContent()).getParts().get(2));
+		assertEquals(true, clone.evaluate(new Score(4)));
+		
+		// bound expressions and parameters are shared as is
+		ExpressionCompiler<Object> compiler = new ExpressionCompiler<Object>(new PathAnalyzer<Object>(new PlainOperationProvider()));
+		compiler.setAutoParameterize(true);
+		Operation<Object> parameterized = EvaluationUtils.clone(compiler.compile("score == 20"), new CustomMethodProvider());
+		assertEquals(true, parameterized.evaluate(new Score(20)));
+		assertEquals(false, parameterized.evaluate(new Score(0)));
+		PreparedExpression<Object> expression = new PreparedExpression<Object>("square(score) == ?", new PlainOperationProvider());
+		Operation<Object> prepared = EvaluationUtils.clone(expression.getOperation(), new CustomMethodProvider());
+		assertNotSame(expression.getOperation(), prepared);
+		assertSame(expression.getOperation().getParts().get(2).getContent(), prepared.getParts().get(2).getContent());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testIncrementalParsing() throws ParseException {
+		PathAnalyzer<Object> analyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+		IncrementalParser<Object> parser = new IncrementalParser<Object>(analyzer);
+		parser.parse("a + (b * 2) - f(c, 1)");
+		Operation<Object> scope = (Operation<Object>) ((Operation<Object>) parser.analyze().getParts().get(0).getContent()).getParts().get(2).getContent();
+		// a + (b * 2) - f(c, -1)
+		assertIncremental(analyzer, parser, parser.getQuery().indexOf("1)"), 0, "-");
+		// a + (b * 2) - f(c, -1) == "(x"
+		assertIncremental(analyzer, parser, parser.getQuery().length(), 0, " == \"(x\"");
+		// a + (b * 2) - g(c, -1) == "(x"
+		assertIncremental(analyzer, parser, parser.getQuery().indexOf("f"), 1, "g");
+		// the scope did not change so it is not analyzed again
+		assertSame(scope, ((Operation<Object>) ((Operation<Object>) ((Operation<Object>) parser.analyze().getParts().get(0).getContent()).getParts().get(0).getContent()).getParts().get(2).getContent()));
+		try {
+			parser.edit(0, 0, "(");
+			fail("The scope is not closed");
+		}
+		catch (ParseException e) {
+			// expected
+		}
+		assertIncremental(analyzer, parser, 0, 1, "");
+	}
+	
+	private void assertIncremental(PathAnalyzer<Object> analyzer, IncrementalParser<Object> parser, int offset, int length, String replacement) throws ParseException {
+		List<QueryPart> parts = parser.edit(offset, length, replacement);
+		List<QueryPart> expected = QueryParser.getInstance().parseUncached(parser.getQuery());
+		assertEquals(expected.size(), parts.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), parts.get(i));
+			assertEquals(expected.get(i).getToken().getStart(), parts.get(i).getToken().getStart());
+			assertEquals(expected.get(i).getToken().getContent(), parts.get(i).getToken().getContent());
+		}
+		assertEquals(analyzer.analyze(expected).toString(), parser.analyze().toString());
+	}
+	
+	public static class Score {
+		private int score, invocations;
+		public Score(int score) {
+			this.score = score;
+		}
+		public int getScore() {
+			invocations++;
+			return score;
+		}
+	}
+	
+	public static class CustomMethodProvider implements OperationProvider<Object> {
+		private PlainOperationProvider provider = new PlainOperationProvider();
+		@Override
+		public Operation<Object> newOperation(OperationType type) {
+			return type == OperationType.METHOD ? new MethodOperation<Object>(PureMethods.class) : provider.newOperation(type);
+		}
+	}
+	
+	public static class PureMethods {
+		private static int invocations;
+		
+		@Pure
+		public static int square(int value) {
+			invocations++;
+			return value * value;
+		}
+	}
+	
 	public static class Test {
 		public String[] values;
 		private List<Test2> tests = new ArrayList<Test2>();